@@ -0,0 +1,23 @@
+package com.enixcoda.smsforward;
+
+import android.util.Log;
+
+/**
+ * Sends log output of the core module to logcat.
+ */
+public class AndroidLogger implements Logger {
+    @Override
+    public void d(String tag, String message) {
+        Log.d(tag, message);
+    }
+
+    @Override
+    public void w(String tag, String message) {
+        Log.w(tag, message);
+    }
+
+    @Override
+    public void e(String tag, String message, Throwable error) {
+        Log.e(tag, message, error);
+    }
+}
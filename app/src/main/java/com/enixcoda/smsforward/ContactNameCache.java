@@ -0,0 +1,154 @@
+package com.enixcoda.smsforward;
+
+import static android.provider.ContactsContract.CommonDataKinds.Phone;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.util.Log;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of sender number to contact display name(s).
+ *
+ * Looking up a sender in the contacts provider is a database query over
+ * binder, and it used to run for every PDU on the main thread. Names are
+ * now cached per normalized number, including "no contact" results, and
+ * the whole cache is dropped whenever the contacts provider reports a change.
+ */
+public class ContactNameCache {
+    private static final String TAG = "ContactNameCache";
+
+    static final int MAX_ENTRIES = 256;
+
+    private static ContactNameCache instance;
+
+    private final Context context;
+    private final LinkedHashMap<String, String> names = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    // Bumped on every invalidation, so a lookup racing with a contacts change is not cached
+    private long generation;
+    private boolean observing;
+
+    private final ContentObserver contactsObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidate();
+        }
+    };
+
+    private ContactNameCache(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public static synchronized ContactNameCache get(Context context) {
+        if (instance == null) {
+            instance = new ContactNameCache(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Get the display names of the contacts with this number
+     * @param phoneNumber Sender address as received
+     * @param cleanedNumber The same address normalized with {@link PhoneNumberUtils#cleanPhoneNumber}
+     * @return Comma-separated contact names, or "" if the number is not a contact
+     */
+    public String lookup(String phoneNumber, String cleanedNumber) {
+        if (!hasContactsPermission()) {
+            // Don't cache: granting the permission does not notify the observer
+            return "";
+        }
+        // Alphanumeric senders normalize to ""; key those by the raw address instead
+        String key = cleanedNumber.isEmpty() ? phoneNumber : cleanedNumber;
+
+        long lookupGeneration;
+        synchronized (this) {
+            String cached = names.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            startObserving();
+            lookupGeneration = generation;
+        }
+
+        String name = queryContactName(phoneNumber);
+        if (name == null) {
+            return "";
+        }
+        synchronized (this) {
+            if (generation == lookupGeneration) {
+                names.put(key, name);
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Load the names of numbers that are likely to message soon, off the receive path
+     * @param phoneNumbers Normalized phone numbers
+     */
+    public void warm(Collection<String> phoneNumbers) {
+        for (String phoneNumber : phoneNumbers) {
+            lookup(phoneNumber, phoneNumber);
+        }
+        Log.d(TAG, "Warmed contact name cache with " + phoneNumbers.size() + " numbers");
+    }
+
+    public synchronized void invalidate() {
+        generation++;
+        names.clear();
+        Log.d(TAG, "Contacts changed, contact name cache cleared");
+    }
+
+    private void startObserving() {
+        if (observing) {
+            return;
+        }
+        try {
+            context.getContentResolver().registerContentObserver(ContactsContract.Contacts.CONTENT_URI, true, contactsObserver);
+            observing = true;
+        } catch (SecurityException e) {
+            Log.e(TAG, "Cannot observe contacts: " + e.getMessage(), e);
+        }
+    }
+
+    private boolean hasContactsPermission() {
+        return context.checkSelfPermission(Manifest.permission.READ_CONTACTS) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    /**
+     * @return The contact names, or null if the provider could not be queried
+     */
+    private String queryContactName(String phoneNumber) {
+        Uri filterUri = Uri.withAppendedPath(Phone.CONTENT_FILTER_URI, Uri.encode(phoneNumber));
+        String[] projection = new String[]{Phone.DISPLAY_NAME};
+        String[] senderContactNames = {};
+        try (Cursor cur = context.getContentResolver().query(filterUri, projection, null, null, null)) {
+            if (cur != null) {
+                senderContactNames = new String[cur.getCount()];
+                int i = 0;
+                while (cur.moveToNext()) {
+                    senderContactNames[i] = cur.getString(0);
+                    i++;
+                }
+            }
+        } catch (RuntimeException e) {
+            // Not cached, so the next message from this sender tries again
+            Log.e(TAG, "Error looking up contact name: " + e.getMessage(), e);
+            return null;
+        }
+        return String.join(", ", senderContactNames);
+    }
+}
@@ -0,0 +1,76 @@
+package com.enixcoda.smsforward;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keeps forwards that could not be delivered after all retries, one JSON
+ * object per line, so they are not silently lost. The file is rotated once
+ * it grows past {@link #MAX_FILE_BYTES}, keeping one previous generation.
+ */
+public class DeadLetterStore {
+    private static final String TAG = "DeadLetterStore";
+    private static final String FILE_NAME = "dead_letters.jsonl";
+    static final long MAX_FILE_BYTES = 512 * 1024;
+
+    private final File file;
+
+    public DeadLetterStore(Context context) {
+        this.file = new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Record a forward that is being given up on
+     * @param request The undeliverable forward
+     * @param error The last delivery error
+     */
+    public synchronized void add(ForwardRequest request, IOException error) {
+        try {
+            JSONObject entry = new JSONObject();
+            entry.put("id", request.id);
+            entry.put("channel", request.channel.name());
+            entry.put("created_at", request.createdAt);
+            entry.put("failed_at", System.currentTimeMillis());
+            entry.put("attempts", request.attempts);
+            entry.put("from", request.sender);
+            entry.put("message", request.message);
+            entry.put("target", request.target);
+            entry.put("error", String.valueOf(error.getMessage()));
+            if (error instanceof DeliveryException) {
+                entry.put("status", ((DeliveryException) error).statusCode);
+            }
+
+            rotateIfFull();
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+                writer.write(entry.toString());
+                writer.write('\n');
+            }
+            Log.w(TAG, request + " moved to dead letters after " + request.attempts + " attempts");
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Error recording dead letter for " + request + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void rotateIfFull() {
+        if (file.length() < MAX_FILE_BYTES) {
+            return;
+        }
+        File previous = new File(file.getPath() + ".1");
+        if (previous.exists() && !previous.delete()) {
+            Log.w(TAG, "Could not delete " + previous);
+        }
+        if (!file.renameTo(previous)) {
+            Log.w(TAG, "Could not rotate " + file);
+        }
+    }
+}
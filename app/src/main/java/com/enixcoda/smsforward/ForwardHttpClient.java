@@ -0,0 +1,198 @@
+package com.enixcoda.smsforward;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Shared HTTP layer for Telegram and Web delivery.
+ *
+ * The platform HttpURLConnection keeps a pool of keep-alive connections per
+ * host, but a connection only goes back to the pool if its response body is
+ * read to the end and {@code disconnect()} is NOT called. Every request goes
+ * through {@link #execute} so that rule is applied in one place. All HTTPS
+ * connections also share one SSLSocketFactory, so reconnects to the same
+ * host can resume the TLS session instead of doing a full handshake.
+ *
+ * {@link #stream} is the allocation-free variant: the body is written
+ * straight to the connection and the response handed to a reader as a
+ * stream, then drained so the connection can still be reused.
+ */
+public class ForwardHttpClient {
+    private static final String TAG = "ForwardHttpClient";
+
+    static final int CONNECT_TIMEOUT_MS = 10000;
+    static final int READ_TIMEOUT_MS = 10000;
+
+    // Idle connections are evicted after this long. Carrier NATs usually drop idle
+    // flows after a few minutes and Doze maintenance windows are short, so a socket
+    // kept longer than this is unlikely to be usable by the next burst anyway.
+    // Applied to the platform pool by SmsForwardApplication.
+    static final long KEEP_ALIVE_DURATION_MS = 2 * 60 * 1000;
+    static final int MAX_IDLE_CONNECTIONS = 8;
+    static final int TLS_SESSION_TIMEOUT_SECONDS = 60 * 60;
+    private static final int MAX_RESPONSE_BYTES = 64 * 1024;
+
+    private static final SSLSocketFactory sslSocketFactory;
+
+    static {
+        sslSocketFactory = createSslSocketFactory();
+    }
+
+    public static class Response {
+        final int statusCode;
+        final String body;
+        final String retryAfter;
+
+        Response(int statusCode, String body, String retryAfter) {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.retryAfter = retryAfter;
+        }
+
+        boolean isSuccessful() {
+            return statusCode >= 200 && statusCode < 300;
+        }
+    }
+
+    /**
+     * Writes a request body of a known length
+     */
+    public interface BodyWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Reads what it needs from a response body; the rest is drained by {@link #stream}
+     */
+    public interface ResponseReader<T> {
+        /**
+         * @param in Response or error body, empty if there is none
+         * @param retryAfter Retry-After header, or null
+         */
+        T read(int statusCode, InputStream in, String retryAfter) throws IOException;
+    }
+
+    /**
+     * Send a request and read the whole response so the connection can be reused
+     * @param method HTTP method
+     * @param endpoint Request URL
+     * @param contentType Content-Type of the body, ignored when body is null
+     * @param body Request body, or null for none
+     * @return Status, body and Retry-After header of the response
+     */
+    public static Response execute(String method, String endpoint, String contentType, byte[] body) throws IOException {
+        HttpURLConnection connection = open(method, endpoint);
+
+        if (body != null) {
+            connection.setRequestProperty("Content-Type", contentType);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+
+        int statusCode = connection.getResponseCode();
+        InputStream responseStream = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        String responseBody = "";
+        if (responseStream != null) {
+            try (InputStream in = responseStream) {
+                responseBody = readFully(in);
+            }
+        }
+        // No disconnect(): closing the fully read stream returns the connection to the pool
+        return new Response(statusCode, responseBody, connection.getHeaderField("Retry-After"));
+    }
+
+    /**
+     * POST a body streamed to the connection and let the reader parse the response as it arrives
+     * @param endpoint Request URL
+     * @param contentType Content-Type of the body
+     * @param contentLength Exact size of what body writes, sent as Content-Length
+     * @param body Writes the request body
+     * @param reader Parses the response
+     * @return What the reader returned
+     */
+    public static <T> T stream(String endpoint, String contentType, long contentLength, BodyWriter body,
+                               ResponseReader<T> reader) throws IOException {
+        HttpURLConnection connection = open("POST", endpoint);
+        connection.setRequestProperty("Content-Type", contentType);
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(contentLength);
+        try (OutputStream out = connection.getOutputStream()) {
+            body.writeTo(out);
+        }
+
+        int statusCode = connection.getResponseCode();
+        InputStream responseStream = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (responseStream == null) {
+            return reader.read(statusCode, new ByteArrayInputStream(new byte[0]), connection.getHeaderField("Retry-After"));
+        }
+        try (InputStream in = responseStream) {
+            T result = reader.read(statusCode, in, connection.getHeaderField("Retry-After"));
+            // Whatever the reader skipped must still be consumed for the connection to return to the pool
+            drain(in);
+            return result;
+        }
+    }
+
+    private static HttpURLConnection open(String method, String endpoint) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(endpoint).openConnection();
+        if (connection instanceof HttpsURLConnection && sslSocketFactory != null) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+        }
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        return connection;
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[512];
+        while (in.read(buffer) != -1) {
+            // Discard
+        }
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            // Keep draining past the limit so the connection stays reusable
+            if (bytes.size() < MAX_RESPONSE_BYTES) {
+                bytes.write(buffer, 0, Math.min(read, MAX_RESPONSE_BYTES - bytes.size()));
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static SSLSocketFactory createSslSocketFactory() {
+        try {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, null, null);
+            SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+            if (sessionContext != null) {
+                sessionContext.setSessionTimeout(TLS_SESSION_TIMEOUT_SECONDS);
+            }
+            return sslContext.getSocketFactory();
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "Error creating shared TLS context, using platform default: " + e.getMessage(), e);
+            return null;
+        }
+    }
+}
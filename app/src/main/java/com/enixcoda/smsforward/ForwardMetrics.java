@@ -0,0 +1,309 @@
+package com.enixcoda.smsforward;
+
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory counters and latency histograms for the forwarding pipeline.
+ *
+ * Pipeline stages (receive to decode, contact lookup, filter) are timed on
+ * the {@link SmsPipeline} worker. Per channel, {@link ForwardQueue} records
+ * how long a due forward waited for its channel, how long each send took,
+ * the outcome of every attempt and the forwarding latency from queueing to
+ * delivery. {@link SmsSender} counts the delivery reports of sent SMS.
+ * Everything is lock-free, so recording never contends with the
+ * settings screen reading a snapshot. Metrics start from zero in each process.
+ */
+public class ForwardMetrics {
+    private static final ForwardMetrics INSTANCE = new ForwardMetrics();
+
+    public enum Stage {
+        // From the SMS_RECEIVED broadcast to decoded messages, including waiting for the pipeline thread
+        RECEIVE_TO_DECODE("receive_to_decode"),
+        CONTACT_LOOKUP("contact_lookup"),
+        FILTER("filter");
+
+        final String key;
+
+        Stage(String key) {
+            this.key = key;
+        }
+    }
+
+    public enum Outcome {
+        DELIVERED("delivered"),
+        // Failed and scheduled for another attempt
+        RETRY("retry"),
+        // Held back by a rate limit before sending
+        THROTTLED("throttled"),
+        // Failed for good and moved to the dead letter store
+        DEAD_LETTER("dead_letter");
+
+        final String key;
+
+        Outcome(String key) {
+            this.key = key;
+        }
+    }
+
+    public enum DeliveryReport {
+        DELIVERED("delivered"),
+        // The carrier is still trying
+        PENDING("pending"),
+        FAILED("failed");
+
+        final String key;
+
+        DeliveryReport(String key) {
+            this.key = key;
+        }
+    }
+
+    private static class ChannelMetrics {
+        final LongAdder queued = new LongAdder();
+        final Map<Outcome, LongAdder> outcomes = new EnumMap<>(Outcome.class);
+        final LatencyHistogram queueWait = new LatencyHistogram();
+        final LatencyHistogram sendTime = new LatencyHistogram();
+        final LatencyHistogram forwardLatency = new LatencyHistogram();
+
+        ChannelMetrics() {
+            for (Outcome outcome : Outcome.values()) {
+                outcomes.put(outcome, new LongAdder());
+            }
+        }
+    }
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final Map<DeliveryReport, LongAdder> smsDeliveryReports = new EnumMap<>(DeliveryReport.class);
+    private final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+    private final Map<ForwardRequest.Channel, ChannelMetrics> channels = new EnumMap<>(ForwardRequest.Channel.class);
+    private volatile long startedAt = SystemClock.elapsedRealtime();
+
+    private ForwardMetrics() {
+        // The maps are filled once here and only read afterwards
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new LatencyHistogram());
+        }
+        for (DeliveryReport report : DeliveryReport.values()) {
+            smsDeliveryReports.put(report, new LongAdder());
+        }
+        for (ForwardRequest.Channel channel : ForwardRequest.Channel.values()) {
+            channels.put(channel, new ChannelMetrics());
+        }
+    }
+
+    public static ForwardMetrics get() {
+        return INSTANCE;
+    }
+
+    public void recordStage(Stage stage, long micros) {
+        stages.get(stage).record(micros);
+    }
+
+    public void onReceived(int messages) {
+        received.add(messages);
+    }
+
+    public void onBlocked() {
+        blocked.increment();
+    }
+
+    public void onDuplicate() {
+        duplicates.increment();
+    }
+
+    /**
+     * @param report Status of one SMS part's delivery report
+     */
+    public void onSmsDeliveryReport(DeliveryReport report) {
+        smsDeliveryReports.get(report).increment();
+    }
+
+    public void onQueued(ForwardRequest.Channel channel) {
+        channels.get(channel).queued.increment();
+    }
+
+    /**
+     * @param micros Time from the forward becoming due to its delivery starting
+     */
+    public void recordQueueWait(ForwardRequest.Channel channel, long micros) {
+        channels.get(channel).queueWait.record(micros);
+    }
+
+    /**
+     * @param micros Duration of one delivery, which may carry a batch of forwards
+     */
+    public void recordSend(ForwardRequest.Channel channel, long micros) {
+        channels.get(channel).sendTime.record(micros);
+    }
+
+    public void onOutcome(ForwardRequest.Channel channel, Outcome outcome) {
+        channels.get(channel).outcomes.get(outcome).increment();
+    }
+
+    /**
+     * @param micros Time from queueing to delivery, across all attempts
+     */
+    public void recordForwardLatency(ForwardRequest.Channel channel, long micros) {
+        channels.get(channel).forwardLatency.record(micros);
+    }
+
+    public void reset() {
+        received.reset();
+        blocked.reset();
+        duplicates.reset();
+        for (LongAdder counter : smsDeliveryReports.values()) {
+            counter.reset();
+        }
+        for (LatencyHistogram histogram : stages.values()) {
+            histogram.reset();
+        }
+        for (ChannelMetrics metrics : channels.values()) {
+            metrics.queued.reset();
+            for (LongAdder counter : metrics.outcomes.values()) {
+                counter.reset();
+            }
+            metrics.queueWait.reset();
+            metrics.sendTime.reset();
+            metrics.forwardLatency.reset();
+        }
+        startedAt = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * @return Every counter and histogram, latencies in microseconds
+     */
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("uptime_seconds", (SystemClock.elapsedRealtime() - startedAt) / 1000);
+        json.put("received", received.sum());
+        json.put("blocked", blocked.sum());
+        json.put("duplicates", duplicates.sum());
+
+        JSONObject reportsJson = new JSONObject();
+        for (Map.Entry<DeliveryReport, LongAdder> entry : smsDeliveryReports.entrySet()) {
+            reportsJson.put(entry.getKey().key, entry.getValue().sum());
+        }
+        json.put("sms_delivery_reports", reportsJson);
+
+        JSONObject stagesJson = new JSONObject();
+        for (Map.Entry<Stage, LatencyHistogram> entry : stages.entrySet()) {
+            stagesJson.put(entry.getKey().key, histogramJson(entry.getValue().snapshot()));
+        }
+        json.put("stages", stagesJson);
+
+        JSONObject channelsJson = new JSONObject();
+        for (Map.Entry<ForwardRequest.Channel, ChannelMetrics> entry : channels.entrySet()) {
+            ChannelMetrics metrics = entry.getValue();
+            JSONObject channelJson = new JSONObject();
+            channelJson.put("queued", metrics.queued.sum());
+            for (Map.Entry<Outcome, LongAdder> outcome : metrics.outcomes.entrySet()) {
+                channelJson.put(outcome.getKey().key, outcome.getValue().sum());
+            }
+            channelJson.put("queue_wait", histogramJson(metrics.queueWait.snapshot()));
+            channelJson.put("send_time", histogramJson(metrics.sendTime.snapshot()));
+            channelJson.put("forward_latency", histogramJson(metrics.forwardLatency.snapshot()));
+            channelsJson.put(entry.getKey().name().toLowerCase(Locale.ROOT), channelJson);
+        }
+        json.put("channels", channelsJson);
+        return json;
+    }
+
+    /**
+     * @return One line per channel that forwarded anything, with its forwarding latency percentiles
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<ForwardRequest.Channel, ChannelMetrics> entry : channels.entrySet()) {
+            ChannelMetrics metrics = entry.getValue();
+            LatencyHistogram.Snapshot latency = metrics.forwardLatency.snapshot();
+            if (metrics.queued.sum() == 0 && latency.count == 0) {
+                continue;
+            }
+            if (summary.length() > 0) {
+                summary.append('\n');
+            }
+            summary.append(entry.getKey().name()).append(": ")
+                .append(metrics.outcomes.get(Outcome.DELIVERED).sum()).append('/').append(metrics.queued.sum())
+                .append(" delivered, p50 ").append(formatMicros(latency.p50Micros))
+                .append(" p99 ").append(formatMicros(latency.p99Micros))
+                .append(" p999 ").append(formatMicros(latency.p999Micros));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * @return A multi-line report of all stages and channels for the settings screen
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append("Received ").append(received.sum())
+            .append(", blocked ").append(blocked.sum())
+            .append(", duplicates ").append(duplicates.sum())
+            .append(" in ").append((SystemClock.elapsedRealtime() - startedAt) / 60000).append(" min\n");
+        for (Map.Entry<Stage, LatencyHistogram> entry : stages.entrySet()) {
+            appendHistogram(report, entry.getKey().key, entry.getValue().snapshot());
+        }
+        for (Map.Entry<ForwardRequest.Channel, ChannelMetrics> entry : channels.entrySet()) {
+            ChannelMetrics metrics = entry.getValue();
+            report.append('\n').append(entry.getKey().name()).append(": queued ").append(metrics.queued.sum());
+            for (Map.Entry<Outcome, LongAdder> outcome : metrics.outcomes.entrySet()) {
+                report.append(", ").append(outcome.getKey().key).append(' ').append(outcome.getValue().sum());
+            }
+            if (entry.getKey() == ForwardRequest.Channel.SMS) {
+                // Reports cover SMS_REPLY messages too; they are counted per SMS part, not per forward
+                report.append(", delivery reports");
+                for (Map.Entry<DeliveryReport, LongAdder> deliveryReport : smsDeliveryReports.entrySet()) {
+                    report.append(' ').append(deliveryReport.getKey().key).append(' ').append(deliveryReport.getValue().sum());
+                }
+            }
+            report.append('\n');
+            appendHistogram(report, "queue_wait", metrics.queueWait.snapshot());
+            appendHistogram(report, "send_time", metrics.sendTime.snapshot());
+            appendHistogram(report, "forward_latency", metrics.forwardLatency.snapshot());
+        }
+        return report.toString();
+    }
+
+    private static JSONObject histogramJson(LatencyHistogram.Snapshot snapshot) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("count", snapshot.count);
+        json.put("mean", snapshot.meanMicros);
+        json.put("p50", snapshot.p50Micros);
+        json.put("p99", snapshot.p99Micros);
+        json.put("p999", snapshot.p999Micros);
+        json.put("max", snapshot.maxMicros);
+        return json;
+    }
+
+    private static void appendHistogram(StringBuilder report, String name, LatencyHistogram.Snapshot snapshot) {
+        report.append("  ").append(name).append(": ");
+        if (snapshot.count == 0) {
+            report.append("-\n");
+            return;
+        }
+        report.append("p50 ").append(formatMicros(snapshot.p50Micros))
+            .append(", p99 ").append(formatMicros(snapshot.p99Micros))
+            .append(", p999 ").append(formatMicros(snapshot.p999Micros))
+            .append(", max ").append(formatMicros(snapshot.maxMicros))
+            .append(" (n=").append(snapshot.count).append(")\n");
+    }
+
+    static String formatMicros(long micros) {
+        if (micros < 1000) {
+            return micros + "µs";
+        } else if (micros < 1000 * 1000) {
+            return String.format(Locale.ROOT, "%.1fms", micros / 1000.0);
+        }
+        return String.format(Locale.ROOT, "%.1fs", micros / 1000000.0);
+    }
+}
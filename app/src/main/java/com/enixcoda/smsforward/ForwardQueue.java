@@ -0,0 +1,557 @@
+package com.enixcoda.smsforward;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Durable queue of outbound SMS, Telegram and Web forwards.
+ *
+ * {@link SmsPipeline} enqueues forwards and calls {@link #commit()} before it
+ * finishes the broadcast, so a message is on disk before the broadcast completes. A single
+ * drain worker, owned by {@link SMSForwardService}, hands pending forwards to
+ * the per-channel executors of a {@link ForwardDispatcher} and acknowledges
+ * each one in the journal once it has been sent.
+ *
+ * Telegram forwards are paced by a {@link TelegramRateLimiter} and sent one
+ * at a time per chat, so different chats are sent to in parallel while each
+ * chat gets its messages in order and within the Bot API limits. Web
+ * forwards go through a {@link CircuitBreaker} per endpoint, so while an
+ * endpoint is failing its forwards wait here instead of on a delivery thread.
+ *
+ * The queue's lock only guards the in-memory state. Journal replay, writes
+ * and fsyncs happen on the pipeline, drain and delivery threads without
+ * holding it, so callers on the main thread never wait for the disk.
+ */
+public class ForwardQueue {
+    private static final String TAG = "ForwardQueue";
+    private static final String JOURNAL_DIRECTORY = "forward_queue";
+
+    static final int DEFAULT_WEB_BATCH_SIZE = 20;
+    static final int DEFAULT_WEB_BATCH_WINDOW_MS = 2000;
+    private static final ForwardRequest.Priority[] DRAIN_ORDER = {ForwardRequest.Priority.HIGH, ForwardRequest.Priority.NORMAL};
+
+    private static ForwardQueue instance;
+
+    private final Context context;
+    private final ForwardJournal journal;
+    private final Map<Long, ForwardRequest> pending = new LinkedHashMap<>();
+    private final RetryPolicy retryPolicy = new RetryPolicy();
+    private final DeadLetterStore deadLetters;
+    private final ForwardMetrics metrics = ForwardMetrics.get();
+    private final TelegramRateLimiter telegramLimiter = new TelegramRateLimiter();
+    // Chats with a Telegram send in flight
+    private final Set<String> telegramChatsInFlight = new HashSet<>();
+    // Per webhook endpoint, created on first use
+    private final Map<String, CircuitBreaker> webBreakers = new HashMap<>();
+    private Thread drainThread;
+    private ForwardDispatcher dispatcher;
+    // Bumped on every change the drain worker has to look at, so a wake-up during its fsync is not lost
+    private long changeCount;
+
+    private final Object openLock = new Object();
+    private boolean journalOpened;
+
+    public static synchronized ForwardQueue get(Context context) {
+        if (instance == null) {
+            instance = new ForwardQueue(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ForwardQueue(Context context) {
+        this.context = context;
+        this.journal = new ForwardJournal(new File(context.getFilesDir(), JOURNAL_DIRECTORY));
+        this.deadLetters = new DeadLetterStore(context);
+    }
+
+    /**
+     * Replay the journal on first use, from the pipeline or drain thread rather than from {@link #get}
+     */
+    private void ensureOpen() {
+        synchronized (openLock) {
+            if (journalOpened) {
+                return;
+            }
+            journalOpened = true;
+            List<ForwardRequest> recovered;
+            try {
+                recovered = journal.open();
+            } catch (IOException e) {
+                Log.e(TAG, "Error opening forward journal: " + e.getMessage(), e);
+                return;
+            }
+            if (recovered.isEmpty()) {
+                return;
+            }
+            synchronized (this) {
+                for (ForwardRequest request : recovered) {
+                    pending.put(request.id, request);
+                }
+                wakeDrainWorker();
+            }
+            Log.d(TAG, "Recovered " + recovered.size() + " undelivered forwards from journal");
+        }
+    }
+
+    /**
+     * Add a forward to the queue. The record is buffered; call {@link #commit()} to make it durable.
+     */
+    public ForwardRequest enqueue(ForwardRequest.Channel channel, String sender, String message, String target,
+                                  ForwardRequest.Priority priority) {
+        ensureOpen();
+        ForwardRequest request = journal.newRequest(channel, sender, message, target);
+        try {
+            journal.append(request);
+        } catch (IOException e) {
+            // Still deliver it, it just won't survive a process restart
+            Log.e(TAG, "Error persisting " + request + ", delivering from memory: " + e.getMessage(), e);
+            request.segment = 0;
+        }
+        request.queuedAt = SystemClock.elapsedRealtime();
+        request.priority = priority;
+        synchronized (this) {
+            pending.put(request.id, request);
+            metrics.onQueued(channel);
+            wakeDrainWorker();
+        }
+        return request;
+    }
+
+    /**
+     * Called with the lock held after anything the drain worker schedules on has changed
+     */
+    private void wakeDrainWorker() {
+        changeCount++;
+        notifyAll();
+    }
+
+    /**
+     * Flush and fsync everything enqueued so far
+     */
+    public void commit() {
+        try {
+            journal.sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Error syncing forward journal: " + e.getMessage(), e);
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Start the drain worker if it is not already running
+     */
+    public synchronized void startDraining() {
+        if (drainThread != null && drainThread.isAlive()) {
+            return;
+        }
+        dispatcher = ForwardingConfig.get(context).newDispatcher();
+        drainThread = new Thread(this::drainLoop, "ForwardQueue-drain");
+        drainThread.start();
+        Log.d(TAG, "Drain worker started");
+    }
+
+    /**
+     * @return true if the drain worker is running in this process
+     */
+    public synchronized boolean isDraining() {
+        return drainThread != null && drainThread.isAlive();
+    }
+
+    /**
+     * Signal the drain worker to stop; it syncs the journal itself on the way out
+     */
+    public synchronized void stopDraining() {
+        if (drainThread != null) {
+            drainThread.interrupt();
+            drainThread = null;
+        }
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+            dispatcher = null;
+        }
+    }
+
+    /**
+     * Hand every due forward to its channel's executor, high priority ones
+     * first, then sleep until a new forward arrives, a delivery finishes or
+     * a retry becomes due.
+     *
+     * When webhook batching is enabled, due Web forwards are grouped per
+     * endpoint and only sent once a batch is full or its oldest forward has
+     * waited for the batch window. Telegram coalescing works the same way per
+     * chat, with the 4096-character message limit in place of a batch size.
+     */
+    private void drainLoop() {
+        ensureOpen();
+        Set<ForwardRequest.Channel> saturated = EnumSet.noneOf(ForwardRequest.Channel.class);
+        Map<String, List<ForwardRequest>> webBatches = new LinkedHashMap<>();
+        Map<String, List<ForwardRequest>> telegramGroups = new LinkedHashMap<>();
+        try {
+            while (true) {
+                long earliest = Long.MAX_VALUE;
+                long seenChanges;
+                synchronized (this) {
+                    // Checked under the lock, so a stopDraining() that cleared the dispatcher is never missed
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+                    seenChanges = changeCount;
+                    ForwardingConfig config = ForwardingConfig.get(context);
+                    ForwardDispatcher drainDispatcher = dispatcherFor(config);
+                    long now = SystemClock.elapsedRealtime();
+                    saturated.clear();
+                    webBatches.clear();
+                    telegramGroups.clear();
+
+                    for (ForwardRequest.Priority priority : DRAIN_ORDER) {
+                        for (ForwardRequest request : pending.values()) {
+                            if (request.priority != priority || request.inFlight || saturated.contains(request.channel)) {
+                                continue;
+                            }
+                            if (request.nextAttemptAt > now) {
+                                earliest = Math.min(earliest, request.nextAttemptAt);
+                                continue;
+                            }
+                            if (request.channel == ForwardRequest.Channel.TELEGRAM) {
+                                if (telegramChatsInFlight.contains(request.target)) {
+                                    // Woken when the chat's current send finishes
+                                    continue;
+                                }
+                                if (config.telegramCoalesceWindowMs > 0) {
+                                    addToGroup(telegramGroups, request);
+                                    continue;
+                                }
+                                long wait = telegramLimiter.tryAcquire(request.target, now);
+                                if (wait > 0) {
+                                    earliest = Math.min(earliest, now + wait);
+                                    continue;
+                                }
+                            }
+                            if (isBatched(config, request)) {
+                                addToGroup(webBatches, request);
+                                continue;
+                            }
+                            if (request.channel == ForwardRequest.Channel.WEB) {
+                                long wait = webBreaker(request.target).tryAcquire(now);
+                                if (wait > 0) {
+                                    earliest = Math.min(earliest, now + wait);
+                                    continue;
+                                }
+                            }
+                            if (!submit(drainDispatcher, Collections.singletonList(request), null)) {
+                                // Channel is full: leave the rest of its forwards queued until a slot frees up
+                                saturated.add(request.channel);
+                            }
+                        }
+                    }
+
+                    for (List<ForwardRequest> batch : webBatches.values()) {
+                        for (int start = 0; start < batch.size(); start += config.webBatchSize) {
+                            if (saturated.contains(ForwardRequest.Channel.WEB)) {
+                                break;
+                            }
+                            List<ForwardRequest> chunk = new ArrayList<>(
+                                batch.subList(start, Math.min(start + config.webBatchSize, batch.size())));
+                            long flushAt = oldestQueuedAt(chunk) + config.webBatchWindowMs;
+                            if (chunk.size() < config.webBatchSize && flushAt > now) {
+                                earliest = Math.min(earliest, flushAt);
+                                break;
+                            }
+                            long wait = webBreaker(chunk.get(0).target).tryAcquire(now);
+                            if (wait > 0) {
+                                earliest = Math.min(earliest, now + wait);
+                                break;
+                            }
+                            if (!submit(drainDispatcher, chunk, config.webBatchFormat)) {
+                                saturated.add(ForwardRequest.Channel.WEB);
+                            }
+                        }
+                    }
+
+                    for (List<ForwardRequest> group : telegramGroups.values()) {
+                        if (saturated.contains(ForwardRequest.Channel.TELEGRAM)) {
+                            break;
+                        }
+                        // A chat has one message in flight at a time, so only the first chunk can go now
+                        List<ForwardRequest> chunk = new ArrayList<>(group.subList(0, TelegramApi.coalescedCount(group)));
+                        long flushAt = oldestQueuedAt(chunk) + config.telegramCoalesceWindowMs;
+                        if (chunk.size() == group.size() && flushAt > now) {
+                            earliest = Math.min(earliest, flushAt);
+                            continue;
+                        }
+                        long wait = telegramLimiter.tryAcquire(chunk.get(0).target, now);
+                        if (wait > 0) {
+                            earliest = Math.min(earliest, now + wait);
+                            continue;
+                        }
+                        if (!submit(drainDispatcher, chunk, null)) {
+                            saturated.add(ForwardRequest.Channel.TELEGRAM);
+                        }
+                    }
+                }
+
+                // Batch the acks written so far into one fsync before idling, without holding the lock
+                commit();
+                synchronized (this) {
+                    if (changeCount == seenChanges) {
+                        long now = SystemClock.elapsedRealtime();
+                        if (earliest == Long.MAX_VALUE) {
+                            wait();
+                        } else if (earliest > now) {
+                            wait(earliest - now);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped while idle
+        }
+        // Sync the acks of this worker here rather than on the thread that stopped it
+        commit();
+        Log.d(TAG, "Drain worker stopped");
+    }
+
+    /**
+     * @return The breaker of a webhook endpoint, created closed on first use
+     */
+    private CircuitBreaker webBreaker(String endpoint) {
+        CircuitBreaker breaker = webBreakers.get(endpoint);
+        if (breaker == null) {
+            breaker = new CircuitBreaker();
+            webBreakers.put(endpoint, breaker);
+        }
+        return breaker;
+    }
+
+    /**
+     * @return State, recent failures and latency of a webhook endpoint, or null if nothing was sent to it yet
+     */
+    public synchronized String getWebEndpointHealth(String endpoint) {
+        CircuitBreaker breaker = webBreakers.get(endpoint);
+        return breaker != null ? breaker.summary(SystemClock.elapsedRealtime()) : null;
+    }
+
+    private static void addToGroup(Map<String, List<ForwardRequest>> groups, ForwardRequest request) {
+        List<ForwardRequest> group = groups.get(request.target);
+        if (group == null) {
+            group = new ArrayList<>();
+            groups.put(request.target, group);
+        }
+        group.add(request);
+    }
+
+    /**
+     * @return When the longest waiting forward was queued; batches are ordered by priority, not age
+     */
+    private static long oldestQueuedAt(List<ForwardRequest> requests) {
+        long oldest = Long.MAX_VALUE;
+        for (ForwardRequest request : requests) {
+            oldest = Math.min(oldest, request.queuedAt);
+        }
+        return oldest;
+    }
+
+    private static boolean isBatched(ForwardingConfig config, ForwardRequest request) {
+        return request.channel == ForwardRequest.Channel.WEB && config.webBatchFormat != WebhookPayloads.BatchFormat.NONE;
+    }
+
+    /**
+     * Swap in a new dispatcher when the parallelism or queue depth settings change.
+     * Deliveries already running on the old one are allowed to finish.
+     */
+    private ForwardDispatcher dispatcherFor(ForwardingConfig config) {
+        if (!config.isCurrent(dispatcher)) {
+            dispatcher.shutdown();
+            dispatcher = config.newDispatcher();
+        }
+        return dispatcher;
+    }
+
+    /**
+     * Mark the forwards in flight and hand them to their channel as one delivery
+     * @param batchFormat Format for a batched Web delivery, or null to deliver a single forward
+     *                    or Telegram forwards coalesced into one message
+     * @return false if the channel is saturated
+     */
+    private boolean submit(ForwardDispatcher drainDispatcher, List<ForwardRequest> requests, WebhookPayloads.BatchFormat batchFormat) {
+        ForwardRequest.Channel channel = requests.get(0).channel;
+        // When each forward became due, 0 if unknown because it was recovered from the journal
+        long[] dueAt = new long[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            ForwardRequest request = requests.get(i);
+            request.inFlight = true;
+            dueAt[i] = request.queuedAt > 0 ? Math.max(request.queuedAt, request.nextAttemptAt) : 0;
+        }
+        boolean submitted = drainDispatcher.trySubmit(channel, () -> {
+            long startedAt = SystemClock.elapsedRealtime();
+            for (long due : dueAt) {
+                if (due > 0) {
+                    metrics.recordQueueWait(channel, (startedAt - due) * 1000);
+                }
+            }
+            long sendStart = System.nanoTime();
+            IOException error = deliver(requests, batchFormat);
+            long sendMicros = (System.nanoTime() - sendStart) / 1000;
+            metrics.recordSend(channel, sendMicros);
+            onDeliveryFinished(requests, error, sendMicros);
+        });
+        for (ForwardRequest request : requests) {
+            if (!submitted) {
+                request.inFlight = false;
+            } else if (channel == ForwardRequest.Channel.TELEGRAM) {
+                telegramChatsInFlight.add(request.target);
+            }
+        }
+        if (!submitted && channel == ForwardRequest.Channel.WEB) {
+            // Hand back a half-open breaker's probe slot
+            webBreaker(requests.get(0).target).release();
+        } else if (!submitted && channel == ForwardRequest.Channel.TELEGRAM) {
+            // Nothing was sent, so the rate limit token taken for it is not used up
+            telegramLimiter.release(requests.get(0).target);
+        }
+        return submitted;
+    }
+
+    /**
+     * Update the queue under its lock, then write the outcome to the journal and
+     * dead letters without it, since a journal write may wait for an fsync
+     * @param error null if the forwards were delivered, otherwise why the attempt failed
+     * @param sendMicros How long the delivery took
+     */
+    private void onDeliveryFinished(List<ForwardRequest> requests, IOException error, long sendMicros) {
+        List<ForwardRequest> done = new ArrayList<>(requests.size());
+        List<ForwardRequest> retrying = new ArrayList<>(requests.size());
+        synchronized (this) {
+            ForwardRequest first = requests.get(0);
+            if (first.channel == ForwardRequest.Channel.WEB) {
+                webBreaker(first.target).record(SystemClock.elapsedRealtime(), sendMicros / 1000, isEndpointFailure(error));
+            }
+            // One jittered delay for the whole batch or coalesced message, so it is retried together
+            // instead of scattering into separate deliveries; the most retried forward sets the backoff
+            long retryDelay = 0;
+            if (error != null && !(error instanceof DeliveryException && ((DeliveryException) error).throttled)) {
+                int attempts = 0;
+                for (ForwardRequest request : requests) {
+                    attempts = Math.max(attempts, request.attempts + 1);
+                }
+                retryDelay = retryPolicy.nextDelayMillis(attempts, error);
+            }
+            for (ForwardRequest request : requests) {
+                onDeliveryFinished(request, error, retryDelay, done, retrying);
+            }
+            wakeDrainWorker();
+        }
+
+        for (ForwardRequest request : retrying) {
+            try {
+                journal.recordAttempt(request);
+            } catch (IOException e) {
+                Log.e(TAG, "Error updating journal for " + request + ": " + e.getMessage(), e);
+            }
+        }
+        for (ForwardRequest request : done) {
+            if (error != null) {
+                deadLetters.add(request, error);
+            }
+            try {
+                journal.ack(request);
+            } catch (IOException e) {
+                Log.e(TAG, "Error updating journal for " + request + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * @param retryDelay Milliseconds until the next attempt if the delivery failed and may be retried
+     * @param done Collects forwards that were delivered or given up on
+     * @param retrying Collects forwards whose failed attempt counts toward their retry budget
+     */
+    private void onDeliveryFinished(ForwardRequest request, IOException error, long retryDelay,
+                                    List<ForwardRequest> done, List<ForwardRequest> retrying) {
+        request.inFlight = false;
+        if (request.channel == ForwardRequest.Channel.TELEGRAM) {
+            telegramChatsInFlight.remove(request.target);
+            if (error instanceof DeliveryException && ((DeliveryException) error).statusCode == 429
+                && ((DeliveryException) error).retryAfterMillis > 0) {
+                telegramLimiter.onRetryAfter(request.target, ((DeliveryException) error).retryAfterMillis,
+                    SystemClock.elapsedRealtime());
+            }
+        }
+        if (error == null) {
+            pending.remove(request.id);
+            done.add(request);
+            metrics.onOutcome(request.channel, ForwardMetrics.Outcome.DELIVERED);
+            if (request.queuedAt > 0) {
+                metrics.recordForwardLatency(request.channel, (SystemClock.elapsedRealtime() - request.queuedAt) * 1000);
+            }
+        } else if (error instanceof DeliveryException && ((DeliveryException) error).throttled) {
+            // Held back before sending, so the attempt count stays as it is
+            request.nextAttemptAt = SystemClock.elapsedRealtime() + ((DeliveryException) error).retryAfterMillis;
+            metrics.onOutcome(request.channel, ForwardMetrics.Outcome.THROTTLED);
+        } else {
+            request.attempts++;
+            if (retryPolicy.shouldRetry(request.attempts, error)) {
+                request.nextAttemptAt = SystemClock.elapsedRealtime() + retryDelay;
+                retrying.add(request);
+                metrics.onOutcome(request.channel, ForwardMetrics.Outcome.RETRY);
+                Log.w(TAG, request + " failed (attempt " + request.attempts + "), retrying in " + retryDelay + "ms");
+            } else {
+                pending.remove(request.id);
+                done.add(request);
+                metrics.onOutcome(request.channel, ForwardMetrics.Outcome.DEAD_LETTER);
+            }
+        }
+    }
+
+    /**
+     * Unreachable, timed out, throttled or a server error; other client errors mean the endpoint is up
+     */
+    private static boolean isEndpointFailure(IOException error) {
+        if (error == null) {
+            return false;
+        }
+        if (error instanceof DeliveryException) {
+            int statusCode = ((DeliveryException) error).statusCode;
+            return statusCode == DeliveryException.NO_STATUS || !DeliveryException.isPermanentStatus(statusCode);
+        }
+        return true;
+    }
+
+    /**
+     * @return null on success, otherwise the delivery error
+     */
+    private IOException deliver(List<ForwardRequest> requests, WebhookPayloads.BatchFormat batchFormat) {
+        try {
+            if (batchFormat != null) {
+                Forwarder.deliverWebBatch(context, requests, batchFormat);
+            } else if (requests.size() > 1) {
+                Forwarder.deliverTelegramCoalesced(context, requests);
+            } else {
+                Forwarder.deliver(context, requests.get(0));
+            }
+            return null;
+        } catch (IOException e) {
+            Log.e(TAG, "Error delivering " + requests + ": " + e.getMessage(), e);
+            return e;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Unexpected error delivering " + requests + ": " + e.getMessage(), e);
+            return new IOException("Unexpected delivery error", e);
+        }
+    }
+}
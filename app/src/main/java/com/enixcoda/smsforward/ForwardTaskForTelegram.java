@@ -1,111 +1,149 @@
 package com.enixcoda.smsforward;
 
-import android.net.Uri;
-import android.os.AsyncTask;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import android.util.Log;
+import android.util.MalformedJsonException;
 
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
-public class ForwardTaskForTelegram extends AsyncTask<Void, Void, Void> {
+public class ForwardTaskForTelegram {
     private static final String TAG = "ForwardTaskForTelegram";
     String senderNumber;
     String message;
     String chatId;
-    String token;
+    TelegramApi.Bot bot;
 
-    public ForwardTaskForTelegram(String senderNumber, String message, String chatId, String token) {
+    /**
+     * What we need from a Bot API response, read without buffering the body
+     */
+    static class Result {
+        int statusCode;
+        boolean ok;
+        long messageId = -1;
+        long retryAfter = DeliveryException.NO_RETRY_AFTER;
+        String description = "";
+    }
+
+    public ForwardTaskForTelegram(String senderNumber, String message, String chatId, TelegramApi.Bot bot) {
         this.senderNumber = senderNumber;
         this.message = message;
         this.chatId = chatId;
-        this.token = token;
+        this.bot = bot;
     }
 
-    @Override
-    protected Void doInBackground(Void... voids) {
-        try {
-            String fullMessage = String.format("Message from %s:\n%s", senderNumber, message);
-            sendViaTelegram(chatId, fullMessage, token);
-        } catch (Exception e) {
-            Log.e(TAG, "Error sending Telegram message: " + e.getMessage(), e);
-        }
-        return null;
+    /**
+     * Send the message synchronously
+     * @return The message_id Telegram assigned, or -1 if the response did not include it
+     * @throws IOException if Telegram did not accept the message
+     */
+    public long send() throws IOException {
+        return sendViaTelegram(bot, chatId, TelegramApi.forwardMessage(chatId, senderNumber, message));
+    }
+
+    /**
+     * Send several forwards to the same chat as one message, see {@link TelegramApi#coalescedMessage}
+     * @return The message_id Telegram assigned, or -1 if the response did not include it
+     * @throws IOException if Telegram did not accept the message
+     */
+    public static long sendCoalesced(List<ForwardRequest> requests, TelegramApi.Bot bot) throws IOException {
+        String chatId = requests.get(0).target;
+        Log.d(TAG, "Coalescing " + requests.size() + " forwards into one message");
+        return sendViaTelegram(bot, chatId, TelegramApi.coalescedMessage(chatId, requests));
     }
 
     /**
-     * Send message via Telegram using GET request with URL parameters
+     * Send message via Telegram using POST with a JSON body
      * Supports both numeric chat_id and @username format for groups/channels
-     * 
-     * @param chatId The chat ID (numeric) or @username for groups/channels
-     * @param message The message to send
-     * @param token The bot token
+     *
+     * @param bot URLs of the bot to send as
+     * @param chatId The chat ID (numeric) or @username for groups/channels, for the log
+     * @param body The sendMessage request body
      */
-    private void sendViaTelegram(String chatId, String message, String token) throws IOException {
-        HttpURLConnection connection = null;
+    private static long sendViaTelegram(TelegramApi.Bot bot, String chatId, TelegramApi.SendMessage body) throws IOException {
         try {
-            // Build URL with encoded parameters (similar to Python's urllib.parse.quote_plus)
-            String encodedMessage = URLEncoder.encode(message, "UTF-8");
-            
-            // Don't encode chatId if it starts with @ (username format)
-            // For @username, we need to keep the @ symbol as-is
-            String chatIdParam = chatId.startsWith("@") ? chatId : URLEncoder.encode(chatId, "UTF-8");
-            
-            // Construct the Telegram API URL
-            String urlString = String.format(
-                "https://api.telegram.org/bot%s/sendMessage?chat_id=%s&text=%s",
-                token,
-                chatIdParam,
-                encodedMessage
-            );
-            
             Log.d(TAG, "Sending to Telegram chat: " + chatId.replaceAll("@", "[at]"));
-            
-            URL url = new URL(urlString);
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(10000);
-            connection.setReadTimeout(10000);
-            
-            int responseCode = connection.getResponseCode();
-            
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                // Read response
-                BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(connection.getInputStream())
-                );
-                StringBuilder response = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    response.append(line);
-                }
-                reader.close();
-                
-                Log.d(TAG, "Telegram message sent successfully. Response: " + response.toString());
-            } else {
-                // Read error response
-                BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(connection.getErrorStream())
-                );
-                StringBuilder errorResponse = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    errorResponse.append(line);
-                }
-                reader.close();
-                
-                Log.e(TAG, "Telegram API error. Status: " + responseCode + ", Response: " + errorResponse.toString());
+
+            // Pooled request: the connection is kept alive for the next message
+            Result result = ForwardHttpClient.stream(bot.sendMessageUrl, TelegramApi.CONTENT_TYPE, body.contentLength(),
+                body::writeTo, ForwardTaskForTelegram::readResult);
+
+            if (result.statusCode == HttpURLConnection.HTTP_OK && result.ok) {
+                Log.d(TAG, "Telegram message sent successfully, message_id " + result.messageId);
+                return result.messageId;
             }
+            Log.e(TAG, "Telegram API error. Status: " + result.statusCode + ", Description: " + result.description);
+            throw DeliveryException.forStatus("Telegram API returned status " + result.statusCode, result.statusCode, result.retryAfter);
+        } catch (IOException e) {
+            Log.e(TAG, "Exception while sending Telegram message: " + e.getMessage(), e);
+            throw e;
         } catch (Exception e) {
             Log.e(TAG, "Exception while sending Telegram message: " + e.getMessage(), e);
             throw new IOException("Failed to send Telegram message", e);
-        } finally {
-            if (connection != null) {
-                connection.disconnect();
+        }
+    }
+
+    /**
+     * Pull ok, result.message_id, description and parameters.retry_after (seconds) out of a response
+     * as it is read; a body that is not the expected JSON leaves them unset.
+     */
+    static Result readResult(int statusCode, InputStream in, String retryAfterHeader) throws IOException {
+        Result result = new Result();
+        result.statusCode = statusCode;
+        // Not closed: ForwardHttpClient drains and closes the stream
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "ok":
+                        result.ok = reader.nextBoolean();
+                        break;
+                    case "result":
+                        if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                            reader.beginObject();
+                            while (reader.hasNext()) {
+                                if (reader.nextName().equals("message_id")) {
+                                    result.messageId = reader.nextLong();
+                                } else {
+                                    reader.skipValue();
+                                }
+                            }
+                            reader.endObject();
+                        } else {
+                            reader.skipValue();
+                        }
+                        break;
+                    case "description":
+                        result.description = reader.nextString();
+                        break;
+                    case "parameters":
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (reader.nextName().equals("retry_after")) {
+                                result.retryAfter = reader.nextLong() * 1000;
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
             }
+        } catch (MalformedJsonException | EOFException | IllegalStateException | NumberFormatException e) {
+            Log.d(TAG, "Telegram response is not the expected JSON");
+        }
+        if (result.retryAfter == DeliveryException.NO_RETRY_AFTER) {
+            result.retryAfter = RetryPolicy.parseRetryAfterHeader(retryAfterHeader);
         }
+        return result;
     }
-}
\ No newline at end of file
+}
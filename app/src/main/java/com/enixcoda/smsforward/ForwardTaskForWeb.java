@@ -1,15 +1,11 @@
 package com.enixcoda.smsforward;
 
-import android.net.Uri;
-import android.os.AsyncTask;
-import android.util.Log;
-
 import org.json.JSONException;
-import org.json.JSONObject;
 
 import java.io.IOException;
+import java.util.List;
 
-public class ForwardTaskForWeb extends AsyncTask<Void, Void, Void> {
+public class ForwardTaskForWeb {
     String senderNumber;
     String message;
     String endpoint;
@@ -20,19 +16,39 @@ public class ForwardTaskForWeb extends AsyncTask<Void, Void, Void> {
         this.endpoint = endpoint;
     }
 
-    @Override
-    protected Void doInBackground(Void... voids) {
+    /**
+     * POST the message to the endpoint synchronously
+     * @throws IOException if the endpoint could not be reached or rejected the request
+     */
+    public void send() throws IOException {
+        try {
+            TaskForWeb.httpRequest(endpoint, WebhookPayloads.single(senderNumber, message));
+        } catch (JSONException e) {
+            throw new IOException("Error building request body", e);
+        }
+    }
+
+    /**
+     * POST several forwards for the same endpoint in one request.
+     * See {@link WebhookPayloads#batch} for the body.
+     *
+     * @param endpoint Target URL
+     * @param requests Forwards to send, oldest first
+     * @param format JSON array or newline-delimited JSON
+     * @param installationId Identifies this device, prefixed to each item key
+     * @throws IOException if the endpoint could not be reached or rejected the request
+     */
+    public static void sendBatch(String endpoint, List<ForwardRequest> requests, WebhookPayloads.BatchFormat format, String installationId) throws IOException {
         try {
-            JSONObject body = new JSONObject();
-            body.put("from", senderNumber);
-            body.put("message", message);
-            TaskForWeb.httpRequest(endpoint, body.toString());
-        } catch (IOException e) {
-            Log.d(Forwarder.class.toString(), e.toString());
+            String body = WebhookPayloads.batch(requests, format, installationId);
+            if (format == WebhookPayloads.BatchFormat.NDJSON) {
+                TaskForWeb.httpRequest(endpoint, body, "application/x-ndjson; utf-8");
+            } else {
+                TaskForWeb.httpRequest(endpoint, body);
+            }
         } catch (JSONException e) {
-            Log.d(Forwarder.class.toString(), e.toString());
+            throw new IOException("Error building batch request body", e);
         }
-        return null;
     }
 
-}
\ No newline at end of file
+}
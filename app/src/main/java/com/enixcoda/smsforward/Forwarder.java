@@ -1,67 +1,88 @@
 package com.enixcoda.smsforward;
 
-import android.telephony.SmsManager;
-import android.util.Log;
+import android.content.Context;
+import android.content.SharedPreferences;
 
-import java.util.ArrayList;
+import androidx.preference.PreferenceManager;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
 
 public class Forwarder {
     // Standard SMS length is ~160 characters for GSM-7, ~70 for Unicode
     // We use a conservative limit to account for encoding variations
     static final int MAX_SMS_LENGTH = 140;
 
-    public static void sendSMS(String number, String content) {
-        SmsManager smsManager = SmsManager.getDefault();
-        
-        // Check if message needs to be split
-        ArrayList<String> parts = smsManager.divideMessage(content);
-        if (parts.size() > 1) {
-            // Send as multi-part SMS (Android handles it properly)
-            smsManager.sendMultipartTextMessage(number, null, parts, null, null);
-        } else {
-            // Send as single SMS
-            smsManager.sendTextMessage(number, null, content, null, null);
+    private static final String KEY_INSTALLATION_ID = "installation_id";
+
+    /**
+     * Hand a message to the rate-aware SmsSender, turning SmsManager's runtime failures into a retryable delivery error
+     */
+    private static void deliverSMS(Context context, long forwardId, String number, String content) throws IOException {
+        try {
+            SmsSender.get(context).send(forwardId, number, content);
+        } catch (RuntimeException e) {
+            throw new IOException("Error sending SMS: " + e.getMessage(), e);
         }
     }
-    
+
     /**
-     * Ensures that the message content doesn't start with a number to prevent SMS delivery failures.
-     * Some carriers reject or fail to deliver SMS messages that start with digits.
+     * Deliver a queued forward synchronously. Called from the ForwardQueue drain worker.
+     * @throws IOException if the forward was not delivered and should be retried
      */
-    private static String sanitizeMessageContent(String content) {
-        if (content == null || content.isEmpty()) {
-            return content;
-        }
-        
-        // Check if the message starts with a digit
-        if (Character.isDigit(content.charAt(0))) {
-            // Prepend text to prevent delivery issues
-            return "Msg: " + content;
+    static void deliver(Context context, ForwardRequest request) throws IOException {
+        switch (request.channel) {
+            case TELEGRAM:
+                new ForwardTaskForTelegram(request.sender, request.message, request.target, telegramBot(context)).send();
+                break;
+            case WEB:
+                new ForwardTaskForWeb(request.sender, request.message, request.target).send();
+                break;
+            case SMS:
+                deliverSMS(context, request.id, request.target, MessageTemplates.formatSmsForward(request.sender, request.message));
+                break;
+            case SMS_REPLY:
+                deliverSMS(context, request.id, request.target, request.message);
+                break;
         }
-        
-        return content;
     }
 
-    public static void forwardViaSMS(String senderNumber, String forwardContent, String forwardNumber) {
-        String forwardPrefix = String.format("From %s:\n", senderNumber);
-        
-        // Sanitize the content to prevent issues with numbers at the start
-        String sanitizedContent = sanitizeMessageContent(forwardContent);
-        String fullMessage = forwardPrefix + sanitizedContent;
+    /**
+     * Deliver several queued Telegram forwards for the same chat as one message
+     */
+    static void deliverTelegramCoalesced(Context context, List<ForwardRequest> requests) throws IOException {
+        ForwardTaskForTelegram.sendCoalesced(requests, telegramBot(context));
+    }
 
-        try {
-            // Use Android's built-in multi-part SMS handling which properly splits messages
-            // and maintains the connection between parts
-            sendSMS(forwardNumber, fullMessage);
-        } catch (RuntimeException e) {
-            Log.e(Forwarder.class.toString(), "Error forwarding SMS: " + e.toString(), e);
+    /**
+     * The bot token is read at delivery time so it is never copied into the journal
+     */
+    private static TelegramApi.Bot telegramBot(Context context) throws IOException {
+        TelegramApi.Bot telegramBot = ForwardingConfig.get(context).telegramBot;
+        if (telegramBot == null) {
+            throw new IOException("Telegram bot token is not configured");
         }
+        return telegramBot;
     }
 
-    public static void forwardViaTelegram(String senderNumber, String message, String targetTelegramID, String telegramToken) {
-        new ForwardTaskForTelegram(senderNumber, message, targetTelegramID, telegramToken).execute();
+    /**
+     * Deliver several queued Web forwards for the same endpoint in one request
+     */
+    static void deliverWebBatch(Context context, List<ForwardRequest> requests, WebhookPayloads.BatchFormat format) throws IOException {
+        ForwardTaskForWeb.sendBatch(requests.get(0).target, requests, format, getInstallationId(context));
     }
-    public static void forwardViaWeb(String senderNumber, String message, String endpoint) {
-        new ForwardTaskForWeb(senderNumber, message, endpoint).execute();
+
+    /**
+     * Random id generated once per install, used to make webhook idempotency keys unique per device
+     */
+    static synchronized String getInstallationId(Context context) {
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        String installationId = sharedPreferences.getString(KEY_INSTALLATION_ID, null);
+        if (installationId == null) {
+            installationId = UUID.randomUUID().toString();
+            sharedPreferences.edit().putString(KEY_INSTALLATION_ID, installationId).apply();
+        }
+        return installationId;
     }
 }
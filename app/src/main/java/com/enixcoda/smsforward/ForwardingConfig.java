@@ -0,0 +1,192 @@
+package com.enixcoda.smsforward;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.preference.PreferenceManager;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the forwarding settings.
+ *
+ * The snapshot is built once from SharedPreferences, with phone number lists
+ * already parsed and normalized, and rebuilt only when a preference changes.
+ * Receivers, the service and the delivery workers all read the current
+ * snapshot through {@link #get(Context)}, a single volatile read, instead of
+ * querying and re-parsing preferences for every SMS.
+ */
+public class ForwardingConfig {
+    private static final String TAG = "ForwardingConfig";
+
+    private static volatile ForwardingConfig current;
+    // SharedPreferences only keeps weak references to listeners, so hold on to it here
+    private static SharedPreferences.OnSharedPreferenceChangeListener preferenceListener;
+
+    final boolean enableSMS;
+    final List<String> targetNumbers;
+
+    final boolean enableTelegram;
+    final List<String> telegramTargets;
+    final String telegramToken;
+    // Method URLs for the token, null when no token is set
+    final TelegramApi.Bot telegramBot;
+    // 0 when coalescing is off
+    final int telegramCoalesceWindowMs;
+
+    final boolean enableWeb;
+    final List<String> webTargets;
+    final WebhookPayloads.BatchFormat webBatchFormat;
+    final int webBatchSize;
+    final int webBatchWindowMs;
+
+    final boolean enableBlocklist;
+    final BlocklistIndex blocklist;
+
+    final int telegramParallelism;
+    final int webParallelism;
+    final int channelQueueDepth;
+    // 0 when duplicate suppression is off
+    final int dedupWindowMs;
+
+    final String routingRulesText;
+    final RoutingRules routingRules;
+
+    final SimSelector.Policy simPolicy;
+    final Map<String, Integer> simPins;
+
+    final ForwardRouter router;
+
+    /**
+     * @param previous The snapshot being replaced, whose blocklist index is kept if the list did not change
+     *                 and whose compiled routing rules and Telegram URLs are reused while unchanged, or null
+     */
+    private ForwardingConfig(Context context, SharedPreferences sharedPreferences, ForwardingConfig previous) {
+        enableSMS = sharedPreferences.getBoolean(context.getString(R.string.key_enable_sms), false);
+        targetNumbers = Collections.unmodifiableList(PhoneNumberUtils.parsePhoneNumbers(
+            sharedPreferences.getString(context.getString(R.string.key_target_sms), "")));
+
+        enableTelegram = sharedPreferences.getBoolean(context.getString(R.string.key_enable_telegram), false);
+        telegramTargets = Collections.unmodifiableList(TelegramApi.parseChatIds(
+            sharedPreferences.getString(context.getString(R.string.key_target_telegram), "")));
+        telegramToken = sharedPreferences.getString(context.getString(R.string.key_telegram_apikey), "");
+        telegramBot = telegramToken.isEmpty() ? null
+            : previous != null && previous.telegramToken.equals(telegramToken) ? previous.telegramBot
+            : new TelegramApi.Bot(telegramToken);
+        telegramCoalesceWindowMs = readInt(sharedPreferences, context.getString(R.string.key_telegram_coalesce_window), 0, 0);
+
+        enableWeb = sharedPreferences.getBoolean(context.getString(R.string.key_enable_web), false);
+        webTargets = Collections.unmodifiableList(WebhookPayloads.parseEndpoints(
+            sharedPreferences.getString(context.getString(R.string.key_target_web), "")));
+        webBatchFormat = WebhookPayloads.BatchFormat.fromPreference(
+            sharedPreferences.getString(context.getString(R.string.key_web_batch_mode), ""));
+        webBatchSize = readPositiveInt(sharedPreferences, context.getString(R.string.key_web_batch_size),
+            ForwardQueue.DEFAULT_WEB_BATCH_SIZE);
+        webBatchWindowMs = readPositiveInt(sharedPreferences, context.getString(R.string.key_web_batch_window),
+            ForwardQueue.DEFAULT_WEB_BATCH_WINDOW_MS);
+
+        enableBlocklist = sharedPreferences.getBoolean(context.getString(R.string.key_enable_blocklist), false);
+        blocklist = (previous != null ? previous.blocklist : BlocklistIndex.EMPTY).withEntries(
+            PhoneNumberUtils.parseBlocklistEntries(sharedPreferences.getString(context.getString(R.string.key_blocked_numbers), "")));
+
+        telegramParallelism = readPositiveInt(sharedPreferences, context.getString(R.string.key_telegram_parallelism),
+            ForwardDispatcher.DEFAULT_TELEGRAM_PARALLELISM);
+        webParallelism = readPositiveInt(sharedPreferences, context.getString(R.string.key_web_parallelism),
+            ForwardDispatcher.DEFAULT_WEB_PARALLELISM);
+        channelQueueDepth = readPositiveInt(sharedPreferences, context.getString(R.string.key_channel_queue_depth),
+            ForwardDispatcher.DEFAULT_QUEUE_DEPTH);
+
+        dedupWindowMs = readInt(sharedPreferences, context.getString(R.string.key_dedup_window),
+            SmsPipeline.DEFAULT_DEDUP_WINDOW_MS, 0);
+
+        routingRulesText = sharedPreferences.getString(context.getString(R.string.key_routing_rules), "");
+        routingRules = previous != null && previous.routingRulesText.equals(routingRulesText)
+            ? previous.routingRules : RoutingRules.parse(routingRulesText);
+
+        simPolicy = SimSelector.Policy.fromPreference(
+            sharedPreferences.getString(context.getString(R.string.key_sim_policy), ""));
+        simPins = Collections.unmodifiableMap(SimSelector.parsePins(
+            sharedPreferences.getString(context.getString(R.string.key_sim_pins), "")));
+
+        router = new ForwardRouter(targetNumbers, enableSMS,
+            isTelegramReady() ? telegramTargets : Collections.<String>emptyList(), isWebReady() ? webTargets : Collections.<String>emptyList(), routingRules);
+    }
+
+    /**
+     * Get the current snapshot, building it and starting to watch for preference changes on first use
+     * @param context Any context
+     * @return The current configuration snapshot
+     */
+    public static ForwardingConfig get(Context context) {
+        ForwardingConfig config = current;
+        if (config != null) {
+            return config;
+        }
+        synchronized (ForwardingConfig.class) {
+            if (current == null) {
+                Context appContext = context.getApplicationContext();
+                SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(appContext);
+                preferenceListener = (prefs, key) -> rebuild(appContext, prefs);
+                sharedPreferences.registerOnSharedPreferenceChangeListener(preferenceListener);
+                current = new ForwardingConfig(appContext, sharedPreferences, null);
+            }
+            return current;
+        }
+    }
+
+    private static synchronized void rebuild(Context context, SharedPreferences sharedPreferences) {
+        current = new ForwardingConfig(context, sharedPreferences, current);
+        Log.d(TAG, "Forwarding configuration rebuilt");
+    }
+
+    public boolean isAnyChannelEnabled() {
+        return enableSMS || enableTelegram || enableWeb;
+    }
+
+    public boolean isTelegramReady() {
+        return enableTelegram && !telegramTargets.isEmpty() && !telegramToken.isEmpty();
+    }
+
+    public boolean isWebReady() {
+        return enableWeb && !webTargets.isEmpty();
+    }
+
+    /**
+     * @param cleanedSender A number already normalized with {@link PhoneNumberUtils#cleanPhoneNumber}
+     * @return true if the blocklist is enabled and the sender is on it
+     */
+    public boolean isBlocked(String cleanedSender) {
+        return enableBlocklist && blocklist.isBlocked(cleanedSender);
+    }
+
+    /**
+     * Create a dispatcher with the limits configured in the settings screen
+     */
+    public ForwardDispatcher newDispatcher() {
+        return new ForwardDispatcher(telegramParallelism, webParallelism, channelQueueDepth);
+    }
+
+    /**
+     * @return true if the dispatcher was created with the limits in this configuration
+     */
+    public boolean isCurrent(ForwardDispatcher dispatcher) {
+        return dispatcher.matches(telegramParallelism, webParallelism, channelQueueDepth);
+    }
+
+    private static int readPositiveInt(SharedPreferences sharedPreferences, String key, int defaultValue) {
+        return readInt(sharedPreferences, key, defaultValue, 1);
+    }
+
+    private static int readInt(SharedPreferences sharedPreferences, String key, int defaultValue, int minValue) {
+        try {
+            int value = Integer.parseInt(sharedPreferences.getString(key, String.valueOf(defaultValue)).trim());
+            return value >= minValue ? value : defaultValue;
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Invalid value for " + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
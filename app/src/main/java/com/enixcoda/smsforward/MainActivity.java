@@ -8,15 +8,22 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.provider.Settings;
+import android.text.InputType;
+import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.preference.EditTextPreference;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
 
+import org.json.JSONException;
+
+import java.util.List;
+
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
     private static final int PERMISSION_REQUEST_CODE = 100;
@@ -91,7 +98,8 @@ public class MainActivity extends AppCompatActivity {
         // Request other permissions
         String[] otherPermissions = {
             Manifest.permission.INTERNET,
-            Manifest.permission.READ_CONTACTS
+            Manifest.permission.READ_CONTACTS,
+            Manifest.permission.READ_PHONE_STATE
         };
         
         boolean needsOtherPermissions = false;
@@ -249,9 +257,7 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void startSMSForwardService() {
-        Intent serviceIntent = new Intent(this, SMSForwardService.class);
-        startService(serviceIntent);
-        Log.d(TAG, "Started SMS Forward Service");
+        ServiceStartCoordinator.get(this).requestStart("app opened");
     }
 
     public static class SettingsFragment extends PreferenceFragmentCompat {
@@ -296,6 +302,111 @@ public class MainActivity extends AppCompatActivity {
                     return true;
                 });
             }
+
+            // Rules span several lines; show how many compiled and which lines were ignored
+            EditTextPreference routingRulesPref = findPreference(getString(R.string.key_routing_rules));
+            if (routingRulesPref != null) {
+                routingRulesPref.setOnBindEditTextListener(editText -> {
+                    editText.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE);
+                    editText.setSingleLine(false);
+                });
+                updateRoutingRulesSummary(routingRulesPref, routingRulesPref.getText());
+                routingRulesPref.setOnPreferenceChangeListener((preference, newValue) -> {
+                    updateRoutingRulesSummary(preference, (String) newValue);
+                    return true;
+                });
+            }
+
+            // Show latency percentiles per channel, with the full report and JSON export on click
+            Preference metricsPref = findPreference(getString(R.string.key_metrics));
+            if (metricsPref != null) {
+                metricsPref.setOnPreferenceClickListener(preference -> {
+                    showMetricsDialog(preference);
+                    return true;
+                });
+            }
+        }
+
+        @Override
+        public void onResume() {
+            super.onResume();
+            Preference metricsPref = findPreference(getString(R.string.key_metrics));
+            if (metricsPref != null) {
+                updateMetricsSummary(metricsPref);
+            }
+            Preference watchdogPref = findPreference(getString(R.string.key_watchdog));
+            if (watchdogPref != null) {
+                watchdogPref.setSummary(ServiceWatchdog.get(requireContext()).summary());
+            }
+            Preference webHealthPref = findPreference(getString(R.string.key_web_health));
+            if (webHealthPref != null) {
+                updateWebHealthSummary(webHealthPref);
+            }
+        }
+
+        /**
+         * One line per endpoint, named by host and path so tokens in the query stay off the screen
+         */
+        private void updateWebHealthSummary(Preference preference) {
+            List<String> endpoints = ForwardingConfig.get(requireContext()).webTargets;
+            if (endpoints.isEmpty()) {
+                preference.setSummary(R.string.summary_web_health_empty);
+                return;
+            }
+            ForwardQueue queue = ForwardQueue.get(requireContext());
+            StringBuilder summary = new StringBuilder();
+            for (String endpoint : endpoints) {
+                Uri uri = Uri.parse(endpoint);
+                String health = queue.getWebEndpointHealth(endpoint);
+                if (summary.length() > 0) {
+                    summary.append('\n');
+                }
+                summary.append(uri.getHost() != null ? uri.getHost() + (uri.getPath() != null ? uri.getPath() : "") : endpoint)
+                    .append(": ").append(health != null ? health : getString(R.string.summary_web_health_idle));
+            }
+            preference.setSummary(summary);
+        }
+
+        private void updateRoutingRulesSummary(Preference preference, String text) {
+            RoutingRules rules = RoutingRules.parse(text);
+            if (rules.isEmpty() && rules.errors.isEmpty()) {
+                preference.setSummary(R.string.summary_routing_rules);
+            } else if (rules.errors.isEmpty()) {
+                preference.setSummary(getString(R.string.summary_routing_rules_count, rules.size()));
+            } else {
+                preference.setSummary(getString(R.string.summary_routing_rules_errors, rules.size(), rules.errors.size(),
+                    TextUtils.join("\n", rules.errors)));
+            }
+        }
+
+        private void updateMetricsSummary(Preference preference) {
+            String summary = ForwardMetrics.get().summary();
+            preference.setSummary(summary.isEmpty() ? getString(R.string.summary_metrics_empty) : summary);
+        }
+
+        private void showMetricsDialog(Preference preference) {
+            new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.title_metrics)
+                .setMessage(ForwardMetrics.get().report())
+                .setPositiveButton("Export JSON", (dialog, which) -> exportMetrics())
+                .setNeutralButton("Reset", (dialog, which) -> {
+                    ForwardMetrics.get().reset();
+                    updateMetricsSummary(preference);
+                })
+                .setNegativeButton("Close", null)
+                .show();
+        }
+
+        private void exportMetrics() {
+            try {
+                Intent intent = new Intent(Intent.ACTION_SEND)
+                    .setType("application/json")
+                    .putExtra(Intent.EXTRA_SUBJECT, "SMS Forward metrics")
+                    .putExtra(Intent.EXTRA_TEXT, ForwardMetrics.get().toJson().toString(2));
+                startActivity(Intent.createChooser(intent, "Export metrics"));
+            } catch (JSONException e) {
+                Log.e(TAG, "Error exporting metrics: " + e.getMessage(), e);
+            }
         }
 
         private void updatePermissionStatusSummary(Preference preference) {
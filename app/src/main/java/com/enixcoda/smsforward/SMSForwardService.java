@@ -1,6 +1,5 @@
 package com.enixcoda.smsforward;
 
-import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
@@ -8,16 +7,11 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Build;
 import android.os.IBinder;
-import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.core.app.NotificationCompat;
-import androidx.preference.PreferenceManager;
-
-import java.util.List;
 
 /**
  * A foreground service to keep the SMS forwarding functionality active
@@ -28,11 +22,25 @@ public class SMSForwardService extends Service {
     private static final int NOTIFICATION_ID = 1001;
     private static final String CHANNEL_ID = "sms_forward_channel";
 
+    // Heartbeat for ServiceWatchdog: a killed process comes back with this false
+    private static volatile boolean running;
+
     @Override
     public void onCreate() {
         super.onCreate();
+        running = true;
         Log.d(TAG, "SMS Forward Service created");
         createNotificationChannel();
+        
+        // Deliver forwards queued while the service was not running
+        ForwardQueue.get(this).startDraining();
+        // Time out multipart messages whose remaining parts never arrived before a restart
+        SmsPipeline.get(this).recover();
+
+        // Target numbers send the reverse messages, so have their names ready before the first one arrives
+        final ContactNameCache contactNameCache = ContactNameCache.get(this);
+        final ForwardingConfig config = ForwardingConfig.get(this);
+        new Thread(() -> contactNameCache.warm(config.targetNumbers), "ContactNameCache-warm").start();
     }
 
     @Override
@@ -41,73 +49,45 @@ public class SMSForwardService extends Service {
         
         // Start as foreground service with notification
         startForeground(NOTIFICATION_ID, createNotification());
+        ServiceStartCoordinator.get(this).onRunning();
         
-        // Set up periodic restart using AlarmManager as additional backup
-        setupServiceRestartAlarm();
-        
-        // Schedule additional periodic checks for reliability
-        scheduleAdditionalChecks();
+        // One adaptive alarm restarts the service should it die; a no-op if already scheduled
+        ServiceWatchdog.get(this).ensureScheduled();
         
         // Return START_STICKY to ensure the service is restarted if killed
         return START_STICKY;
     }
 
-    private void setupServiceRestartAlarm() {
-        try {
-            AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-            Intent intent = new Intent(this, BootReceiver.class);
-            intent.setAction("com.enixcoda.smsforward.PERIODIC_CHECK");
-            
-            PendingIntent pendingIntent = PendingIntent.getBroadcast(
-                this, 2, intent, 
-                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-            );
-            
-            // Check every 60 minutes to reduce battery usage (was 10 minutes)
-            long interval = 60 * 60 * 1000; // 60 minutes
-            alarmManager.setRepeating(AlarmManager.ELAPSED_REALTIME_WAKEUP, 
-                SystemClock.elapsedRealtime() + interval, interval, pendingIntent);
-            
-            Log.d(TAG, "Set up service restart alarm every 60 minutes");
-        } catch (Exception e) {
-            Log.e(TAG, "Error setting up service restart alarm: " + e.getMessage(), e);
+    /**
+     * Start the service, in the foreground where the platform requires it
+     */
+    public static void start(Context context) {
+        Intent serviceIntent = new Intent(context, SMSForwardService.class);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.startForegroundService(serviceIntent);
+        } else {
+            context.startService(serviceIntent);
         }
     }
 
+    /**
+     * @return true if the service is alive in this process
+     */
+    public static boolean isRunning() {
+        return running;
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return null;
     }
 
-    private void scheduleAdditionalChecks() {
-        try {
-            AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-            
-            // Schedule multiple checks at different intervals for maximum reliability
-            long[] intervals = {5 * 60 * 1000, 15 * 60 * 1000, 30 * 60 * 1000}; // 5min, 15min, 30min
-            
-            for (int i = 0; i < intervals.length; i++) {
-                Intent intent = new Intent(this, BootReceiver.class);
-                intent.setAction("com.enixcoda.smsforward.PERIODIC_CHECK");
-                
-                PendingIntent pendingIntent = PendingIntent.getBroadcast(
-                    this, 10 + i, intent, 
-                    PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-                );
-                
-                alarmManager.setRepeating(AlarmManager.ELAPSED_REALTIME_WAKEUP, 
-                    SystemClock.elapsedRealtime() + intervals[i], intervals[i], pendingIntent);
-                
-                Log.d(TAG, "Scheduled additional check #" + (i+1) + " every " + (intervals[i]/60000) + " minutes");
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error scheduling additional checks: " + e.getMessage(), e);
-        }
-    }
-
     @Override
     public void onDestroy() {
         super.onDestroy();
+        running = false;
+        ForwardQueue.get(this).stopDraining();
+        ServiceStartCoordinator.get(this).onStopped();
         Log.d(TAG, "SMS Forward Service destroyed");
     }
 
@@ -141,25 +121,20 @@ public class SMSForwardService extends Service {
         );
 
         // Get current forwarding status
-        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
-        boolean enableSMS = sharedPreferences.getBoolean(getString(R.string.key_enable_sms), false);
-        boolean enableWeb = sharedPreferences.getBoolean(getString(R.string.key_enable_web), false);
-        boolean enableTelegram = sharedPreferences.getBoolean(getString(R.string.key_enable_telegram), false);
+        ForwardingConfig config = ForwardingConfig.get(this);
 
         String statusText = "SMS Forwarding Active";
-        if (enableSMS || enableWeb || enableTelegram) {
+        if (config.isAnyChannelEnabled()) {
             StringBuilder methods = new StringBuilder();
-            if (enableSMS) {
-                String targetNumbersString = sharedPreferences.getString(getString(R.string.key_target_sms), "");
-                List<String> targetNumbers = PhoneNumberUtils.parsePhoneNumbers(targetNumbersString);
-                if (PhoneNumberUtils.hasValidNumbers(targetNumbers)) {
-                    methods.append("SMS(").append(targetNumbers.size()).append(") ");
+            if (config.enableSMS) {
+                if (PhoneNumberUtils.hasValidNumbers(config.targetNumbers)) {
+                    methods.append("SMS(").append(config.targetNumbers.size()).append(") ");
                 } else {
                     methods.append("SMS ");
                 }
             }
-            if (enableWeb) methods.append("Web ");
-            if (enableTelegram) methods.append("Telegram ");
+            if (config.enableWeb) methods.append("Web ");
+            if (config.enableTelegram) methods.append("Telegram ");
             statusText = "Forwarding via: " + methods.toString().trim();
         } else {
             statusText = "SMS Forwarding Disabled";
@@ -0,0 +1,164 @@
+package com.enixcoda.smsforward;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.Log;
+
+/**
+ * Single entry point for starting {@link SMSForwardService}.
+ *
+ * Boot broadcasts, the watchdog and the settings screen all ask for a
+ * start; the coordinator tracks STOPPED, STARTING and RUNNING in a small
+ * persisted record tagged with the boot count, so a start requested while
+ * the service is already starting or running is a no-op instead of
+ * another startForegroundService round trip. A start that has not
+ * reported RUNNING within {@link #START_TIMEOUT_MS} may be retried.
+ *
+ * It also times the first RUNNING of each boot, from the device booting
+ * and from BOOT_COMPLETED reaching the app.
+ */
+public class ServiceStartCoordinator {
+    private static final String TAG = "ServiceStartCoordinator";
+    private static final String PREFERENCES = "service_start";
+
+    static final long START_TIMEOUT_MS = 30 * 1000;
+
+    public enum State {
+        STOPPED,
+        STARTING,
+        RUNNING
+    }
+
+    private static final String KEY_STATE = "state";
+    private static final String KEY_BOOT_COUNT = "boot_count";
+    // elapsedRealtime of the last state change
+    private static final String KEY_CHANGED_AT = "changed_at";
+    private static final String KEY_BOOT_COMPLETED_AT = "boot_completed_at";
+    private static final String KEY_BOOT_COMPLETED_BOOT_COUNT = "boot_completed_boot_count";
+    private static final String KEY_READY_BOOT_COUNT = "ready_boot_count";
+    private static final String KEY_BOOT_TO_READY = "boot_to_ready_ms";
+
+    private static ServiceStartCoordinator instance;
+
+    private final Context context;
+    private final SharedPreferences preferences;
+
+    public static synchronized ServiceStartCoordinator get(Context context) {
+        if (instance == null) {
+            instance = new ServiceStartCoordinator(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ServiceStartCoordinator(Context context) {
+        this.context = context;
+        this.preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Start the service unless it is already starting or running
+     * @param reason Who asked, for the log
+     * @return true if a start was issued
+     */
+    public synchronized boolean requestStart(String reason) {
+        State state = getState();
+        if (state == State.RUNNING) {
+            Log.d(TAG, "Service already running, ignoring start from " + reason);
+            return false;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (state == State.STARTING && now - preferences.getLong(KEY_CHANGED_AT, 0) < START_TIMEOUT_MS) {
+            Log.d(TAG, "Service already starting, ignoring start from " + reason);
+            return false;
+        }
+        Log.d(TAG, "Starting service for " + reason);
+        setState(State.STARTING, now);
+        try {
+            SMSForwardService.start(context);
+        } catch (RuntimeException e) {
+            // Newer Android versions may refuse a foreground start from the background
+            Log.e(TAG, "Error starting service: " + e.getMessage(), e);
+            setState(State.STOPPED, now);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Note when BOOT_COMPLETED arrived, to time the path to the service running
+     */
+    public synchronized void onBootCompleted() {
+        preferences.edit()
+            .putLong(KEY_BOOT_COMPLETED_AT, SystemClock.elapsedRealtime())
+            .putInt(KEY_BOOT_COMPLETED_BOOT_COUNT, bootCount())
+            .apply();
+    }
+
+    /**
+     * Called by the service once it is in the foreground
+     */
+    public synchronized void onRunning() {
+        long now = SystemClock.elapsedRealtime();
+        int bootCount = bootCount();
+        boolean firstThisBoot = preferences.getInt(KEY_READY_BOOT_COUNT, -1) != bootCount;
+        setState(State.RUNNING, now);
+        if (firstThisBoot) {
+            long bootCompletedAt = preferences.getInt(KEY_BOOT_COMPLETED_BOOT_COUNT, -1) == bootCount
+                ? preferences.getLong(KEY_BOOT_COMPLETED_AT, -1) : -1;
+            preferences.edit()
+                .putInt(KEY_READY_BOOT_COUNT, bootCount)
+                .putLong(KEY_BOOT_TO_READY, now)
+                .apply();
+            Log.i(TAG, "Forwarding ready " + now + "ms after boot"
+                + (bootCompletedAt >= 0 ? ", " + (now - bootCompletedAt) + "ms after BOOT_COMPLETED" : ""));
+        }
+    }
+
+    /**
+     * Called by the service when it is destroyed
+     */
+    public synchronized void onStopped() {
+        setState(State.STOPPED, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * @return The recorded state, corrected for reboots and for a process that died with the service
+     */
+    public synchronized State getState() {
+        if (preferences.getInt(KEY_BOOT_COUNT, -1) != bootCount()) {
+            return State.STOPPED;
+        }
+        State state;
+        try {
+            state = State.valueOf(preferences.getString(KEY_STATE, State.STOPPED.name()));
+        } catch (IllegalArgumentException e) {
+            return State.STOPPED;
+        }
+        if (state == State.RUNNING && !SMSForwardService.isRunning()) {
+            // The record outlived the process that ran the service
+            return State.STOPPED;
+        }
+        return state;
+    }
+
+    /**
+     * @return Milliseconds from boot to the service running in the last boot it ran, or -1 if never measured
+     */
+    public synchronized long getBootToReadyMillis() {
+        return preferences.getLong(KEY_BOOT_TO_READY, -1);
+    }
+
+    private void setState(State state, long now) {
+        preferences.edit()
+            .putString(KEY_STATE, state.name())
+            .putLong(KEY_CHANGED_AT, now)
+            .putInt(KEY_BOOT_COUNT, bootCount())
+            .apply();
+    }
+
+    private int bootCount() {
+        return Settings.Global.getInt(context.getContentResolver(), Settings.Global.BOOT_COUNT, 0);
+    }
+}
@@ -0,0 +1,218 @@
+package com.enixcoda.smsforward;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.text.DateFormat;
+import java.util.Date;
+
+/**
+ * The one alarm that keeps {@link SMSForwardService} alive.
+ *
+ * A single inexact wakeup alarm checks whether the service and its drain
+ * worker are still running in this process and only restarts the service
+ * when they are not. Every healthy check doubles the interval up to
+ * {@link #MAX_INTERVAL_MS}; a restart drops it back to
+ * {@link #MIN_INTERVAL_MS}. Scheduling is idempotent, so the service and
+ * the boot receiver can ask for the alarm as often as they like without
+ * adding wakeups.
+ *
+ * Earlier versions kept five repeating alarms (every 5, 15, 30, 30 and 60
+ * minutes); those are cancelled once on upgrade, and the wakeups saved
+ * compared to them are counted and shown in the settings screen.
+ */
+public class ServiceWatchdog {
+    private static final String TAG = "ServiceWatchdog";
+    private static final String PREFERENCES = "service_watchdog";
+    static final String ACTION_CHECK = "com.enixcoda.smsforward.WATCHDOG_CHECK";
+
+    private static final int REQUEST_CODE = 20;
+    static final long MIN_INTERVAL_MS = 15 * 60 * 1000;
+    static final long MAX_INTERVAL_MS = 2 * 60 * 60 * 1000;
+    // The first check after boot catches a service that failed to come up
+    private static final long BOOT_CHECK_DELAY_MS = 2 * 60 * 1000;
+
+    // Request codes and actions of the alarms earlier versions registered
+    private static final String LEGACY_PERIODIC_CHECK = "com.enixcoda.smsforward.PERIODIC_CHECK";
+    private static final String LEGACY_DELAYED_START = "com.enixcoda.smsforward.DELAYED_START";
+    private static final int[] LEGACY_PERIODIC_REQUEST_CODES = {1, 2, 10, 11, 12};
+    private static final int[] LEGACY_DELAYED_REQUEST_CODES = {0, 1, 2, 3};
+    // 12 + 4 + 2 + 2 + 1 wakeups per hour from the 5, 15, 30, 30 and 60 minute alarms
+    private static final double LEGACY_WAKEUPS_PER_HOUR = 21;
+
+    private static final String KEY_INTERVAL = "interval_ms";
+    private static final String KEY_NEXT_CHECK_AT = "next_check_at";
+    private static final String KEY_BOOT_COUNT = "boot_count";
+    private static final String KEY_SINCE = "since";
+    private static final String KEY_CHECKS = "checks";
+    private static final String KEY_RESTARTS = "restarts";
+    private static final String KEY_LEGACY_CANCELLED = "legacy_cancelled";
+
+    private static ServiceWatchdog instance;
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    private final AlarmManager alarmManager;
+
+    public static synchronized ServiceWatchdog get(Context context) {
+        if (instance == null) {
+            instance = new ServiceWatchdog(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ServiceWatchdog(Context context) {
+        this.context = context;
+        this.preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        this.alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        if (!preferences.contains(KEY_SINCE)) {
+            preferences.edit().putLong(KEY_SINCE, System.currentTimeMillis()).apply();
+        }
+    }
+
+    /**
+     * Make sure the check alarm is set, without moving an alarm that is already pending
+     */
+    public synchronized void ensureScheduled() {
+        cancelLegacyAlarms();
+        long nextCheckAt = preferences.getLong(KEY_NEXT_CHECK_AT, 0);
+        // Alarms do not survive a reboot, and elapsedRealtime restarts from zero
+        if (preferences.getInt(KEY_BOOT_COUNT, -1) == bootCount() && nextCheckAt > SystemClock.elapsedRealtime()) {
+            return;
+        }
+        scheduleIn(preferences.getLong(KEY_INTERVAL, MIN_INTERVAL_MS));
+    }
+
+    /**
+     * Check soon after boot, then back off from the shortest interval again
+     */
+    public synchronized void onBoot() {
+        cancelLegacyAlarms();
+        preferences.edit().putLong(KEY_INTERVAL, MIN_INTERVAL_MS).apply();
+        scheduleIn(BOOT_CHECK_DELAY_MS);
+    }
+
+    /**
+     * Called when the alarm fires: restart the service if it is dead and schedule the next check
+     */
+    public synchronized void check() {
+        long interval = preferences.getLong(KEY_INTERVAL, MIN_INTERVAL_MS);
+        int restarts = preferences.getInt(KEY_RESTARTS, 0);
+        if (!ForwardingConfig.get(context).isAnyChannelEnabled()) {
+            Log.d(TAG, "Forwarding disabled, watchdog stops");
+            preferences.edit().putLong(KEY_NEXT_CHECK_AT, 0).apply();
+            countCheck(interval, restarts);
+            return;
+        }
+
+        ForwardQueue queue = ForwardQueue.get(context);
+        if (SMSForwardService.isRunning() && queue.isDraining()) {
+            interval = Math.min(interval * 2, MAX_INTERVAL_MS);
+        } else {
+            if (SMSForwardService.isRunning()) {
+                Log.w(TAG, "Drain worker died, restarting it");
+                queue.startDraining();
+            } else {
+                Log.w(TAG, "Service not running, restarting it");
+                ServiceStartCoordinator.get(context).requestStart("watchdog");
+            }
+            // Check again sooner in case the restart did not take
+            interval = MIN_INTERVAL_MS;
+            restarts++;
+        }
+        countCheck(interval, restarts);
+        scheduleIn(interval);
+        Log.d(TAG, summary());
+    }
+
+    /**
+     * @return One line for the settings screen: interval, restarts, wakeups saved and boot-to-ready time
+     */
+    public synchronized String summary() {
+        long since = preferences.getLong(KEY_SINCE, System.currentTimeMillis());
+        long bootToReady = ServiceStartCoordinator.get(context).getBootToReadyMillis();
+        return "Checking every " + preferences.getLong(KEY_INTERVAL, MIN_INTERVAL_MS) / 60000 + " min, "
+            + preferences.getInt(KEY_RESTARTS, 0) + " restarts, "
+            + wakeupsSaved(since) + " wakeups saved since "
+            + DateFormat.getDateInstance(DateFormat.SHORT).format(new Date(since))
+            + (bootToReady >= 0 ? ", ready " + bootToReady / 1000 + "s after boot" : "");
+    }
+
+    /**
+     * @return Wakeups the legacy alarms would have caused since the given time, minus the checks made
+     */
+    private long wakeupsSaved(long since) {
+        double hours = (System.currentTimeMillis() - since) / (60.0 * 60 * 1000);
+        long legacyWakeups = (long) (hours * LEGACY_WAKEUPS_PER_HOUR);
+        return Math.max(0, legacyWakeups - preferences.getLong(KEY_CHECKS, 0));
+    }
+
+    private void countCheck(long interval, int restarts) {
+        preferences.edit()
+            .putLong(KEY_INTERVAL, interval)
+            .putLong(KEY_CHECKS, preferences.getLong(KEY_CHECKS, 0) + 1)
+            .putInt(KEY_RESTARTS, restarts)
+            .apply();
+    }
+
+    private void scheduleIn(long delayMs) {
+        long triggerAt = SystemClock.elapsedRealtime() + delayMs;
+        try {
+            // Inexact, so the system can batch it with other wakeups; the same request code replaces any pending check
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                alarmManager.setAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAt, checkIntent());
+            } else {
+                alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAt, checkIntent());
+            }
+            preferences.edit()
+                .putLong(KEY_NEXT_CHECK_AT, triggerAt)
+                .putInt(KEY_BOOT_COUNT, bootCount())
+                .apply();
+            Log.d(TAG, "Next service check in " + delayMs / 1000 + "s");
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error scheduling service check: " + e.getMessage(), e);
+        }
+    }
+
+    private PendingIntent checkIntent() {
+        Intent intent = new Intent(context, BootReceiver.class).setAction(ACTION_CHECK);
+        return PendingIntent.getBroadcast(context, REQUEST_CODE, intent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    private void cancelLegacyAlarms() {
+        if (preferences.getBoolean(KEY_LEGACY_CANCELLED, false)) {
+            return;
+        }
+        int cancelled = cancelAll(LEGACY_PERIODIC_CHECK, LEGACY_PERIODIC_REQUEST_CODES)
+            + cancelAll(LEGACY_DELAYED_START, LEGACY_DELAYED_REQUEST_CODES);
+        preferences.edit().putBoolean(KEY_LEGACY_CANCELLED, true).apply();
+        Log.d(TAG, "Cancelled " + cancelled + " legacy alarms");
+    }
+
+    private int cancelAll(String action, int[] requestCodes) {
+        int cancelled = 0;
+        for (int requestCode : requestCodes) {
+            Intent intent = new Intent(context, BootReceiver.class).setAction(action);
+            PendingIntent pendingIntent = PendingIntent.getBroadcast(context, requestCode, intent,
+                PendingIntent.FLAG_NO_CREATE | PendingIntent.FLAG_IMMUTABLE);
+            if (pendingIntent != null) {
+                alarmManager.cancel(pendingIntent);
+                pendingIntent.cancel();
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    private int bootCount() {
+        return Settings.Global.getInt(context.getContentResolver(), Settings.Global.BOOT_COUNT, 0);
+    }
+}
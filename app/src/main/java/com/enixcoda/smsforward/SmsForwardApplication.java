@@ -0,0 +1,27 @@
+package com.enixcoda.smsforward;
+
+import android.app.Application;
+
+/**
+ * Connects the platform-independent core to Android and configures HTTP
+ * before any receiver, service or activity runs.
+ */
+public class SmsForwardApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        CoreLog.setLogger(new AndroidLogger());
+        configureConnectionPool();
+    }
+
+    /**
+     * Size the platform's keep-alive pool. It reads these properties once, when the first
+     * connection is made anywhere in the process, so they are set here rather than when
+     * ForwardHttpClient is first loaded. The constants are inlined, so this does not load it.
+     */
+    private static void configureConnectionPool() {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(ForwardHttpClient.MAX_IDLE_CONNECTIONS));
+        System.setProperty("http.keepAliveDuration", String.valueOf(ForwardHttpClient.KEEP_ALIVE_DURATION_MS));
+    }
+}
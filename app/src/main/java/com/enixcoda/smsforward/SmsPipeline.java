@@ -0,0 +1,225 @@
+package com.enixcoda.smsforward;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.os.SystemClock;
+import android.telephony.SmsMessage;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background processing of received SMS, off the main thread.
+ *
+ * {@link SMSReceiver} only extracts the raw PDUs and calls
+ * {@code goAsync()}; each broadcast then runs through these stages on a
+ * single worker thread, which also keeps messages in arrival order:
+ *
+ * - decode: PDUs to sender and body, joining the parts of multipart messages
+ * - enrich: normalized sender and contact name
+ * - filter: drop blocked senders, and copies of a message seen within the dedup window
+ * - route: queue the forwards (or the reverse message) chosen by {@link ForwardRouter} in the journal
+ * - dispatch: fsync the journal, wake the drain worker and finish the broadcast
+ *
+ * The broadcast is finished only once its forwards are durable, so the
+ * process cannot be killed between accepting a message and recording it.
+ */
+public class SmsPipeline {
+    private static final String TAG = "SmsPipeline";
+    private static final String REASSEMBLY_FILE = "sms_parts.bin";
+
+    static final int DEFAULT_DEDUP_WINDOW_MS = 60 * 1000;
+
+    private static SmsPipeline instance;
+
+    private final Context context;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "SmsPipeline"));
+    // Only touched on the pipeline thread
+    private SmsReassembler reassembler;
+    private final DedupWindow dedupWindow = new DedupWindow();
+    private final ForwardMetrics metrics = ForwardMetrics.get();
+    private ScheduledFuture<?> expiryTask;
+
+    private static class InboundSms {
+        final String senderNumber;
+        final String body;
+        String cleanedSender;
+        String senderLabel;
+
+        InboundSms(String senderNumber, String body) {
+            this.senderNumber = senderNumber;
+            this.body = body;
+        }
+    }
+
+    private SmsPipeline(Context context) {
+        this.context = context;
+    }
+
+    public static synchronized SmsPipeline get(Context context) {
+        if (instance == null) {
+            instance = new SmsPipeline(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Process the PDUs of one SMS_RECEIVED broadcast in the background
+     * @param pdus The "pdus" extra of the broadcast
+     * @param format The "format" extra of the broadcast
+     * @param pendingResult Result of goAsync(), finished once the forwards are journaled
+     */
+    public void submit(Object[] pdus, String format, BroadcastReceiver.PendingResult pendingResult) {
+        long receivedAt = System.nanoTime();
+        executor.execute(() -> {
+            try {
+                process(pdus, format, receivedAt);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error processing received SMS: " + e.getMessage(), e);
+            } finally {
+                pendingResult.finish();
+            }
+        });
+    }
+
+    /**
+     * Load multipart messages left incomplete by a previous process and schedule their timeouts
+     */
+    public void recover() {
+        executor.execute(this::releaseExpired);
+    }
+
+    private void process(Object[] pdus, String format, long receivedAt) {
+        ForwardingConfig config = ForwardingConfig.get(context);
+        if (!config.isAnyChannelEnabled()) return;
+
+        List<InboundSms> messages = decode(pdus, format);
+        metrics.recordStage(ForwardMetrics.Stage.RECEIVE_TO_DECODE, (System.nanoTime() - receivedAt) / 1000);
+        metrics.onReceived(messages.size());
+        forward(config, messages);
+    }
+
+    private void releaseExpired() {
+        try {
+            List<SmsReassembler.Reassembled> released = new ArrayList<>();
+            reassembler().expire(System.currentTimeMillis(), released);
+            List<InboundSms> messages = new ArrayList<>(released.size());
+            for (SmsReassembler.Reassembled message : released) {
+                messages.add(new InboundSms(message.address, message.body));
+            }
+            forward(ForwardingConfig.get(context), messages);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error releasing incomplete multipart messages: " + e.getMessage(), e);
+        }
+    }
+
+    private void forward(ForwardingConfig config, List<InboundSms> messages) {
+        ForwardQueue forwardQueue = ForwardQueue.get(context);
+        int routed = 0;
+        for (InboundSms sms : messages) {
+            enrich(sms);
+            long filterStart = System.nanoTime();
+            boolean accepted = filter(config, sms);
+            metrics.recordStage(ForwardMetrics.Stage.FILTER, (System.nanoTime() - filterStart) / 1000);
+            if (accepted) {
+                routed += config.router.route(sms.senderNumber, sms.cleanedSender, sms.senderLabel, sms.body, forwardQueue::enqueue);
+            }
+        }
+        if (routed > 0) {
+            dispatch();
+        }
+        // Only forget joined parts once the forwards made from them are durable
+        reassembler().save();
+        scheduleExpiry();
+    }
+
+    private List<InboundSms> decode(Object[] pdus, String format) {
+        List<InboundSms> messages = new ArrayList<>(pdus.length);
+        List<SmsReassembler.Reassembled> released = new ArrayList<>();
+        for (Object pdu : pdus) {
+            SmsMessage currentMessage = SmsMessage.createFromPdu((byte[]) pdu, format);
+            if (currentMessage == null) {
+                Log.w(TAG, "Skipping undecodable PDU");
+                continue;
+            }
+            String senderNumber = currentMessage.getDisplayOriginatingAddress();
+            String body = currentMessage.getDisplayMessageBody();
+            SmsReassembler.ConcatInfo concat = SmsReassembler.parseConcatInfo((byte[]) pdu, format);
+            if (concat == null) {
+                messages.add(new InboundSms(senderNumber, body));
+                continue;
+            }
+            reassembler().add(senderNumber, body, concat, System.currentTimeMillis(), released);
+            for (SmsReassembler.Reassembled message : released) {
+                if (!message.complete) {
+                    Log.w(TAG, "Forwarding incomplete multipart message from " + message.address);
+                }
+                messages.add(new InboundSms(message.address, message.body));
+            }
+            released.clear();
+        }
+        return messages;
+    }
+
+    private SmsReassembler reassembler() {
+        if (reassembler == null) {
+            reassembler = new SmsReassembler(new File(context.getFilesDir(), REASSEMBLY_FILE));
+        }
+        return reassembler;
+    }
+
+    private void scheduleExpiry() {
+        if (expiryTask != null) {
+            expiryTask.cancel(false);
+            expiryTask = null;
+        }
+        long expiresAt = reassembler().nextExpiryAt();
+        if (expiresAt >= 0) {
+            long delay = Math.max(0, expiresAt - System.currentTimeMillis());
+            expiryTask = executor.schedule(this::releaseExpired, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void enrich(InboundSms sms) {
+        sms.cleanedSender = PhoneNumberUtils.cleanPhoneNumber(sms.senderNumber);
+        long lookupStart = System.nanoTime();
+        String senderNames = ContactNameCache.get(context).lookup(sms.senderNumber, sms.cleanedSender);
+        metrics.recordStage(ForwardMetrics.Stage.CONTACT_LOOKUP, (System.nanoTime() - lookupStart) / 1000);
+        sms.senderLabel = (senderNames.isEmpty() ? "" : senderNames + " ") + "(" + sms.senderNumber + ")";
+    }
+
+    /**
+     * @return false if the message must not be forwarded
+     */
+    private boolean filter(ForwardingConfig config, InboundSms sms) {
+        if (config.isBlocked(sms.cleanedSender)) {
+            Log.d(TAG, "Message from blocked sender " + sms.senderNumber + " will not be forwarded");
+            metrics.onBlocked();
+            return false;
+        }
+        if (config.dedupWindowMs > 0) {
+            // Carriers redeliver and alert providers resend: forward each message once per window
+            String sender = sms.cleanedSender.isEmpty() ? sms.senderNumber : sms.cleanedSender;
+            long fingerprint = DedupWindow.fingerprint(sender, sms.body);
+            if (dedupWindow.isDuplicate(fingerprint, SystemClock.elapsedRealtime(), config.dedupWindowMs)) {
+                Log.d(TAG, "Duplicate message from " + sms.senderNumber + " will not be forwarded");
+                metrics.onDuplicate();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void dispatch() {
+        // Make queued forwards durable before the broadcast completes, then make sure they get delivered
+        ForwardQueue forwardQueue = ForwardQueue.get(context);
+        forwardQueue.commit();
+        forwardQueue.startDraining();
+    }
+}
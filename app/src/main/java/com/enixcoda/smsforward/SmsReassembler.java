@@ -0,0 +1,291 @@
+package com.enixcoda.smsforward;
+
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Joins the parts of concatenated (multipart) SMS before they are forwarded.
+ *
+ * Parts are grouped by originating address and the concatenation reference
+ * from the user data header. Usually every part arrives in the same
+ * broadcast, but they can be split over several, so incomplete messages are
+ * kept in a bounded buffer that is also written to disk. A message whose
+ * parts stop arriving is released with the missing parts marked once it
+ * times out or is evicted, rather than being dropped.
+ *
+ * Not thread safe; only used from the {@link SmsPipeline} worker.
+ */
+public class SmsReassembler {
+    private static final String TAG = "SmsReassembler";
+
+    static final long PART_TIMEOUT_MS = 5 * 60 * 1000;
+    static final int MAX_PENDING_MESSAGES = 32;
+    static final String MISSING_PART_MARKER = "[...]";
+
+    private static final int FILE_VERSION = 1;
+    private static final String FORMAT_3GPP = "3gpp";
+    private static final int IEI_CONCAT_8BIT_REF = 0x00;
+    private static final int IEI_CONCAT_16BIT_REF = 0x08;
+
+    /**
+     * Concatenation information element of one part
+     */
+    static class ConcatInfo {
+        final int reference;
+        final int count;
+        // 1-based
+        final int sequence;
+
+        ConcatInfo(int reference, int count, int sequence) {
+            this.reference = reference;
+            this.count = count;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * A message ready to be forwarded
+     */
+    static class Reassembled {
+        final String address;
+        final String body;
+        final boolean complete;
+
+        Reassembled(String address, String body, boolean complete) {
+            this.address = address;
+            this.body = body;
+            this.complete = complete;
+        }
+    }
+
+    private static class PendingMessage {
+        final String address;
+        final int reference;
+        final String[] parts;
+        final long firstSeenAt;
+        int received;
+
+        PendingMessage(String address, int reference, int count, long firstSeenAt) {
+            this.address = address;
+            this.reference = reference;
+            this.parts = new String[count];
+            this.firstSeenAt = firstSeenAt;
+        }
+
+        Reassembled join() {
+            StringBuilder body = new StringBuilder();
+            for (String part : parts) {
+                body.append(part != null ? part : MISSING_PART_MARKER);
+            }
+            return new Reassembled(address, body.toString(), received == parts.length);
+        }
+    }
+
+    private final AtomicFile file;
+    // Insertion order is arrival order of the first part, so the eldest entry is the oldest message
+    private final LinkedHashMap<String, PendingMessage> pending = new LinkedHashMap<>();
+    private boolean dirty;
+
+    public SmsReassembler(File file) {
+        this.file = new AtomicFile(file);
+        load();
+    }
+
+    /**
+     * Add one part of a concatenated message
+     * @param now Wall clock time, parts may be kept across reboots
+     * @param released Receives the message if this part completes it, and any message evicted to make room
+     */
+    public void add(String address, String body, ConcatInfo concat, long now, List<Reassembled> released) {
+        String key = address + "/" + concat.reference + "/" + concat.count;
+        PendingMessage message = pending.get(key);
+        if (message == null) {
+            if (pending.size() >= MAX_PENDING_MESSAGES) {
+                Iterator<PendingMessage> eldest = pending.values().iterator();
+                PendingMessage evicted = eldest.next();
+                eldest.remove();
+                Log.w(TAG, "Reassembly buffer full, releasing incomplete message from " + evicted.address);
+                released.add(evicted.join());
+            }
+            message = new PendingMessage(address, concat.reference, concat.count, now);
+            pending.put(key, message);
+        }
+        dirty = true;
+
+        int index = concat.sequence - 1;
+        if (message.parts[index] == null) {
+            message.parts[index] = body;
+            message.received++;
+        }
+        if (message.received == message.parts.length) {
+            pending.remove(key);
+            released.add(message.join());
+        }
+    }
+
+    /**
+     * Release every message whose first part arrived more than {@link #PART_TIMEOUT_MS} ago
+     */
+    public void expire(long now, List<Reassembled> released) {
+        Iterator<PendingMessage> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            PendingMessage message = iterator.next();
+            if (now - message.firstSeenAt >= PART_TIMEOUT_MS) {
+                iterator.remove();
+                dirty = true;
+                Log.w(TAG, "Timed out waiting for parts of message from " + message.address
+                    + " (" + message.received + "/" + message.parts.length + ")");
+                released.add(message.join());
+            }
+        }
+    }
+
+    /**
+     * @return Wall clock time at which the oldest incomplete message times out, or -1 if there is none
+     */
+    public long nextExpiryAt() {
+        long earliest = -1;
+        for (PendingMessage message : pending.values()) {
+            long expiresAt = message.firstSeenAt + PART_TIMEOUT_MS;
+            if (earliest < 0 || expiresAt < earliest) {
+                earliest = expiresAt;
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * Write the buffer to disk if it changed since the last save
+     */
+    public void save() {
+        if (!dirty) {
+            return;
+        }
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(pending.size());
+            for (PendingMessage message : pending.values()) {
+                out.writeUTF(message.address);
+                out.writeInt(message.reference);
+                out.writeInt(message.parts.length);
+                out.writeLong(message.firstSeenAt);
+                out.writeInt(message.received);
+                for (int i = 0; i < message.parts.length; i++) {
+                    if (message.parts[i] != null) {
+                        out.writeInt(i);
+                        out.writeUTF(message.parts[i]);
+                    }
+                }
+            }
+            out.flush();
+            file.finishWrite(stream);
+            dirty = false;
+        } catch (IOException e) {
+            if (stream != null) {
+                file.failWrite(stream);
+            }
+            Log.e(TAG, "Error saving SMS reassembly buffer: " + e.getMessage(), e);
+        }
+    }
+
+    private void load() {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(file.readFully()))) {
+            if (in.readInt() != FILE_VERSION) {
+                Log.w(TAG, "Ignoring SMS reassembly buffer with unknown version");
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String address = in.readUTF();
+                int reference = in.readInt();
+                int partCount = in.readInt();
+                PendingMessage message = new PendingMessage(address, reference, partCount, in.readLong());
+                int received = in.readInt();
+                for (int j = 0; j < received; j++) {
+                    message.parts[in.readInt()] = in.readUTF();
+                }
+                message.received = received;
+                pending.put(address + "/" + reference + "/" + partCount, message);
+            }
+            if (count > 0) {
+                Log.d(TAG, "Recovered " + count + " incomplete multipart messages");
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing buffered yet
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Error reading SMS reassembly buffer: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read the concatenation header of an SMS-DELIVER PDU.
+     * The platform SmsMessage does not expose its user data header, so the PDU is walked directly.
+     * @param pdu One entry of the "pdus" extra
+     * @param format The "format" extra; only 3GPP PDUs are understood
+     * @return The concatenation info, or null if the PDU is a standalone message or cannot be parsed
+     */
+    static ConcatInfo parseConcatInfo(byte[] pdu, String format) {
+        if (pdu == null || (format != null && !FORMAT_3GPP.equals(format))) {
+            return null;
+        }
+        try {
+            // SMSC address: length in octets, then the address
+            int i = (pdu[0] & 0xff) + 1;
+            int firstOctet = pdu[i++] & 0xff;
+            // Only SMS-DELIVER (TP-MTI 00) with a user data header (TP-UDHI)
+            if ((firstOctet & 0x03) != 0 || (firstOctet & 0x40) == 0) {
+                return null;
+            }
+            // TP-OA: length in semi-octets, type of address, then the packed address
+            int addressLength = pdu[i++] & 0xff;
+            i += 1 + (addressLength + 1) / 2;
+            // TP-PID, TP-DCS, TP-SCTS and TP-UDL
+            i += 1 + 1 + 7 + 1;
+
+            int headerLength = pdu[i++] & 0xff;
+            int end = i + headerLength;
+            if (end > pdu.length) {
+                return null;
+            }
+            while (i + 2 <= end) {
+                int iei = pdu[i] & 0xff;
+                int length = pdu[i + 1] & 0xff;
+                int data = i + 2;
+                if (data + length > end) {
+                    return null;
+                }
+                if (iei == IEI_CONCAT_8BIT_REF && length == 3) {
+                    return validConcatInfo(pdu[data] & 0xff, pdu[data + 1] & 0xff, pdu[data + 2] & 0xff);
+                } else if (iei == IEI_CONCAT_16BIT_REF && length == 4) {
+                    int reference = ((pdu[data] & 0xff) << 8) | (pdu[data + 1] & 0xff);
+                    return validConcatInfo(reference, pdu[data + 2] & 0xff, pdu[data + 3] & 0xff);
+                }
+                i = data + length;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            Log.w(TAG, "Truncated PDU, treating it as a standalone message");
+        }
+        return null;
+    }
+
+    private static ConcatInfo validConcatInfo(int reference, int count, int sequence) {
+        if (count < 2 || sequence < 1 || sequence > count) {
+            return null;
+        }
+        return new ConcatInfo(reference, count, sequence);
+    }
+}
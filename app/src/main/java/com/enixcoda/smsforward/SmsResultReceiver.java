@@ -0,0 +1,20 @@
+package com.enixcoda.smsforward;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Receives the sent and delivered PendingIntents of SMS handed to SmsManager by {@link SmsSender}
+ */
+public class SmsResultReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        int sendId = intent.getIntExtra(SmsSender.EXTRA_SEND_ID, 0);
+        if (SmsSender.ACTION_SMS_SENT.equals(intent.getAction())) {
+            SmsSender.get(context).onSentResult(sendId, getResultCode());
+        } else if (SmsSender.ACTION_SMS_DELIVERED.equals(intent.getAction())) {
+            SmsSender.get(context).onDeliveryReport(sendId, intent);
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package com.enixcoda.smsforward;
+
+import android.Manifest;
+import android.app.Activity;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.SystemClock;
+import android.provider.Telephony;
+import android.telephony.SmsManager;
+import android.telephony.SmsMessage;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rate-aware outbound SMS with sent and delivery tracking.
+ *
+ * Runs on the single SMS delivery thread of {@link ForwardDispatcher}. On
+ * multi-SIM devices {@link SimSelector} orders the SIMs to send from. Each
+ * send first takes tokens from {@link SmsRateLimiter}; if there are none the
+ * forward is handed back to the queue as throttled, which costs no attempt.
+ * The message is then given to SmsManager with sent and delivered
+ * PendingIntents, and the call waits briefly for every part's sent result to
+ * arrive through {@link SmsResultReceiver}, so a refusal by the platform or
+ * carrier becomes a retry instead of going unnoticed. If the results are
+ * slow, the forward is handed back as throttled rather than holding up the
+ * SMS thread; its next attempt picks up the late result instead of sending
+ * the message a second time. Delivery reports that
+ * arrive later are counted in {@link ForwardMetrics}, and a failed one slows
+ * down the SIM it was sent from.
+ */
+public class SmsSender {
+    private static final String TAG = "SmsSender";
+
+    static final String ACTION_SMS_SENT = "com.enixcoda.smsforward.SMS_SENT";
+    static final String ACTION_SMS_DELIVERED = "com.enixcoda.smsforward.SMS_DELIVERED";
+    static final String EXTRA_SEND_ID = "send_id";
+    // Usually a few seconds; longer waits are handed back to the queue
+    static final long SENT_RESULT_TIMEOUT_MS = 10 * 1000;
+    static final long LATE_RESULT_RECHECK_MS = 15 * 1000;
+    // Past this a missing result is taken as a failed attempt and the message is sent again
+    static final long SENT_RESULT_GIVE_UP_MS = 3 * 60 * 1000;
+    private static final int MAX_AWAITED_REPORTS = 64;
+
+    private static SmsSender instance;
+
+    private final Context context;
+    private final SmsRateLimiter rateLimiter = new SmsRateLimiter();
+    private final SimSelector simSelector = new SimSelector();
+    private final Map<Integer, PendingSend> pendingSends = new ConcurrentHashMap<>();
+    // Forward id -> its send that timed out waiting for sent results
+    private final Map<Long, PendingSend> lateSends = new ConcurrentHashMap<>();
+    // Sends whose delivery reports may still arrive; carriers that never send them leave entries to be evicted
+    private final LinkedHashMap<Integer, PendingSend> awaitedReports = new LinkedHashMap<Integer, PendingSend>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, PendingSend> eldest) {
+            return size() > MAX_AWAITED_REPORTS;
+        }
+    };
+    // Random start so results meant for a previous process can't be mistaken for ours
+    private final AtomicInteger nextSendId = new AtomicInteger(new Random().nextInt());
+    private final AtomicInteger nextRequestCode = new AtomicInteger(new Random().nextInt());
+
+    private static class PendingSend {
+        final int sendId;
+        final int subscriptionId;
+        final long startedAt;
+        final CountDownLatch remainingParts;
+        // First non-OK result code reported for any part
+        volatile int resultCode = Activity.RESULT_OK;
+        // Parts without a final delivery report, guarded by awaitedReports
+        int remainingReports;
+
+        PendingSend(int sendId, int subscriptionId, long startedAt, int parts) {
+            this.sendId = sendId;
+            this.subscriptionId = subscriptionId;
+            this.startedAt = startedAt;
+            remainingParts = new CountDownLatch(parts);
+            remainingReports = parts;
+        }
+    }
+
+    private SmsSender(Context context) {
+        this.context = context;
+    }
+
+    public static synchronized SmsSender get(Context context) {
+        if (instance == null) {
+            instance = new SmsSender(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Send a message and wait until the platform reports the outcome of every part
+     * @param forwardId Journal id of the forward, which ties a retry to an earlier send whose result came late
+     * @param number Destination number
+     * @param content Message text, split into parts as needed
+     * @throws DeliveryException if the message was throttled, refused or its result is still outstanding;
+     *                           permanent when retrying can't help
+     * @throws IOException if no result arrived at all
+     */
+    public void send(long forwardId, String number, String content) throws IOException {
+        long now = SystemClock.elapsedRealtime();
+        if (resolveLateSend(forwardId, now)) {
+            return;
+        }
+        ForwardingConfig config = ForwardingConfig.get(context);
+        String destination = PhoneNumberUtils.cleanPhoneNumber(number);
+        List<Integer> candidates = candidateSubscriptions(config, destination, now);
+        ArrayList<String> parts = smsManagerFor(candidates.get(0)).divideMessage(content);
+
+        // Take the first SIM with capacity; policies that don't balance load only ever use their first choice
+        boolean acquired = false;
+        int subscriptionId = candidates.get(0);
+        long wait = Long.MAX_VALUE;
+        for (int candidate : candidates) {
+            long candidateWait = rateLimiter.tryAcquire(candidate, destination, parts.size(), now);
+            if (candidateWait == 0) {
+                acquired = true;
+                subscriptionId = candidate;
+                break;
+            }
+            wait = Math.min(wait, candidateWait);
+            if (!config.simPolicy.balances) {
+                break;
+            }
+        }
+        if (!acquired) {
+            throw DeliveryException.throttled("SMS rate limit reached", wait);
+        }
+        SmsManager smsManager = smsManagerFor(subscriptionId);
+
+        int sendId = nextSendId.incrementAndGet();
+        PendingSend pendingSend = new PendingSend(sendId, subscriptionId, now, parts.size());
+        pendingSends.put(sendId, pendingSend);
+        synchronized (awaitedReports) {
+            awaitedReports.put(sendId, pendingSend);
+        }
+        boolean late = false;
+        try {
+            ArrayList<PendingIntent> sentIntents = new ArrayList<>(parts.size());
+            ArrayList<PendingIntent> deliveryIntents = new ArrayList<>(parts.size());
+            for (int i = 0; i < parts.size(); i++) {
+                sentIntents.add(resultIntent(ACTION_SMS_SENT, sendId));
+                deliveryIntents.add(resultIntent(ACTION_SMS_DELIVERED, sendId));
+            }
+
+            if (parts.size() > 1) {
+                // Send as multi-part SMS (Android handles it properly)
+                smsManager.sendMultipartTextMessage(number, null, parts, sentIntents, deliveryIntents);
+            } else {
+                // Send as single SMS
+                smsManager.sendTextMessage(number, null, content, sentIntents.get(0), deliveryIntents.get(0));
+            }
+
+            if (!pendingSend.remainingParts.await(SENT_RESULT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                // Keep listening for the results; the retry of this forward collects them
+                late = true;
+                lateSends.put(forwardId, pendingSend);
+                throw DeliveryException.throttled("No SMS sent result yet", LATE_RESULT_RECHECK_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for SMS sent result");
+        } finally {
+            if (!late) {
+                pendingSends.remove(sendId);
+            }
+        }
+
+        handleResult(subscriptionId, pendingSend.resultCode);
+    }
+
+    /**
+     * Settle an earlier send of this forward that timed out waiting for its sent results
+     * @return true if that send went out after all, false if there was none and the message should be sent
+     * @throws DeliveryException if its results are still outstanding, or it failed and the new attempt is a retry
+     * @throws IOException if its results never arrived
+     */
+    private boolean resolveLateSend(long forwardId, long now) throws IOException {
+        PendingSend late = lateSends.get(forwardId);
+        if (late == null) {
+            return false;
+        }
+        if (late.remainingParts.getCount() > 0) {
+            if (now - late.startedAt < SENT_RESULT_GIVE_UP_MS) {
+                // Sending again now could deliver the message twice
+                throw DeliveryException.throttled("Still waiting for SMS sent result", LATE_RESULT_RECHECK_MS);
+            }
+            lateSends.remove(forwardId);
+            pendingSends.remove(late.sendId);
+            throw new IOException("No SMS sent result after " + SENT_RESULT_GIVE_UP_MS / 1000 + "s");
+        }
+        lateSends.remove(forwardId);
+        pendingSends.remove(late.sendId);
+        Log.d(TAG, "Late sent result " + late.resultCode + " for SMS " + late.sendId);
+        handleResult(late.subscriptionId, late.resultCode);
+        return true;
+    }
+
+    /**
+     * Called by {@link SmsResultReceiver} for each part's sent PendingIntent
+     */
+    void onSentResult(int sendId, int resultCode) {
+        PendingSend pendingSend = pendingSends.get(sendId);
+        if (pendingSend == null) {
+            Log.w(TAG, "Sent result " + resultCode + " for unknown or timed out SMS " + sendId);
+            return;
+        }
+        if (resultCode != Activity.RESULT_OK && pendingSend.resultCode == Activity.RESULT_OK) {
+            pendingSend.resultCode = resultCode;
+        }
+        pendingSend.remainingParts.countDown();
+    }
+
+    /**
+     * Called by {@link SmsResultReceiver} for each part's delivery report
+     */
+    void onDeliveryReport(int sendId, Intent intent) {
+        byte[] pdu = intent.getByteArrayExtra("pdu");
+        if (pdu == null) {
+            return;
+        }
+        SmsMessage report = SmsMessage.createFromPdu(pdu, intent.getStringExtra("format"));
+        if (report == null) {
+            return;
+        }
+        int status = report.getStatus();
+        if (status >= Telephony.Sms.STATUS_PENDING && status < Telephony.Sms.STATUS_FAILED) {
+            ForwardMetrics.get().onSmsDeliveryReport(ForwardMetrics.DeliveryReport.PENDING);
+            Log.d(TAG, "SMS " + sendId + " delivery pending, status " + status);
+            return;
+        }
+
+        boolean failed = status >= Telephony.Sms.STATUS_FAILED;
+        PendingSend send;
+        synchronized (awaitedReports) {
+            send = awaitedReports.get(sendId);
+            // Back off once per message, however many of its parts failed
+            if (send != null && (failed || --send.remainingReports == 0)) {
+                awaitedReports.remove(sendId);
+            }
+        }
+        if (!failed) {
+            ForwardMetrics.get().onSmsDeliveryReport(ForwardMetrics.DeliveryReport.DELIVERED);
+            Log.d(TAG, "SMS " + sendId + " delivered");
+            return;
+        }
+        ForwardMetrics.get().onSmsDeliveryReport(ForwardMetrics.DeliveryReport.FAILED);
+        if (send == null) {
+            Log.w(TAG, "SMS " + sendId + " was not delivered, status " + status);
+            return;
+        }
+        rateLimiter.onDeliveryFailed(send.subscriptionId, SystemClock.elapsedRealtime());
+        Log.w(TAG, "SMS " + sendId + " was not delivered, status " + status + ", slowing down to "
+            + rateLimiter.getRatePerMinute(send.subscriptionId) + " messages per minute");
+    }
+
+    private void handleResult(int subscriptionId, int resultCode) throws DeliveryException {
+        long now = SystemClock.elapsedRealtime();
+        switch (resultCode) {
+            case Activity.RESULT_OK:
+                rateLimiter.onAccepted(subscriptionId, now);
+                simSelector.onSendSucceeded(subscriptionId);
+                return;
+            case SmsManager.RESULT_ERROR_LIMIT_EXCEEDED:
+                long delay = rateLimiter.onLimitExceeded(subscriptionId, now);
+                simSelector.onSendFailed(subscriptionId, now);
+                Log.w(TAG, "SMS limit exceeded, slowing down to "
+                    + rateLimiter.getRatePerMinute(subscriptionId) + " messages per minute");
+                throw new DeliveryException("SMS limit exceeded", DeliveryException.NO_STATUS, delay, false);
+            case SmsManager.RESULT_ERROR_FDN_CHECK_FAILURE:
+            case SmsManager.RESULT_ERROR_SHORT_CODE_NOT_ALLOWED:
+            case SmsManager.RESULT_ERROR_SHORT_CODE_NEVER_ALLOWED:
+                throw new DeliveryException("SMS not allowed, result " + resultCode,
+                    DeliveryException.NO_STATUS, DeliveryException.NO_RETRY_AFTER, true);
+            default:
+                // No service, radio off, generic failures: fail over to another SIM if there is one, and back off
+                simSelector.onSendFailed(subscriptionId, now);
+                throw new DeliveryException("SMS not sent, result " + resultCode,
+                    DeliveryException.NO_STATUS, DeliveryException.NO_RETRY_AFTER, false);
+        }
+    }
+
+    /**
+     * @return Subscription ids to send from, most preferred first; never empty
+     */
+    private List<Integer> candidateSubscriptions(ForwardingConfig config, String destination, long now) {
+        int defaultSubscriptionId = SubscriptionManager.getDefaultSmsSubscriptionId();
+        List<SimSelector.Sim> sims = activeSims();
+        if (sims.size() < 2) {
+            return Collections.singletonList(sims.isEmpty() ? defaultSubscriptionId : sims.get(0).subscriptionId);
+        }
+        return simSelector.candidates(sims, defaultSubscriptionId, config.simPolicy, destination, config.simPins, rateLimiter, now);
+    }
+
+    /**
+     * @return Active SIMs in slot order, or an empty list if they can't be listed
+     */
+    private List<SimSelector.Sim> activeSims() {
+        List<SimSelector.Sim> sims = new ArrayList<>();
+        if (context.checkSelfPermission(Manifest.permission.READ_PHONE_STATE) != PackageManager.PERMISSION_GRANTED) {
+            return sims;
+        }
+        SubscriptionManager subscriptionManager = context.getSystemService(SubscriptionManager.class);
+        try {
+            List<SubscriptionInfo> subscriptions = subscriptionManager != null ? subscriptionManager.getActiveSubscriptionInfoList() : null;
+            if (subscriptions != null) {
+                for (SubscriptionInfo subscription : subscriptions) {
+                    sims.add(new SimSelector.Sim(subscription.getSubscriptionId(), subscription.getSimSlotIndex()));
+                }
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "Cannot list SIMs: " + e.getMessage(), e);
+        }
+        Collections.sort(sims, (a, b) -> Integer.compare(a.slotIndex, b.slotIndex));
+        return sims;
+    }
+
+    private static SmsManager smsManagerFor(int subscriptionId) {
+        if (subscriptionId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
+            // No default SMS SIM ("ask every time"): let the platform decide
+            return SmsManager.getDefault();
+        }
+        return SmsManager.getSmsManagerForSubscriptionId(subscriptionId);
+    }
+
+    private PendingIntent resultIntent(String action, int sendId) {
+        Intent intent = new Intent(action)
+            .setClass(context, SmsResultReceiver.class)
+            .putExtra(EXTRA_SEND_ID, sendId);
+        // Mutable so the platform can attach the delivery report PDU
+        int flags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S ? PendingIntent.FLAG_MUTABLE : 0;
+        return PendingIntent.getBroadcast(context, nextRequestCode.incrementAndGet(), intent, flags | PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_CANCEL_CURRENT);
+    }
+}
@@ -1,46 +1,31 @@
 package com.enixcoda.smsforward;
 
-import android.net.Uri;
 import android.os.AsyncTask;
 import android.util.Log;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
 
 public class TaskForWeb extends AsyncTask<Void, Void, Void> {
     static public void httpRequest(String endpoint, String content) throws IOException {
-        URL url = new URL(endpoint);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json; utf-8");
+        httpRequest(endpoint, content, "application/json; utf-8");
+    }
 
-        connection.setDoOutput(true);
+    static public void httpRequest(String endpoint, String content, String contentType) throws IOException {
+        ForwardHttpClient.Response response = ForwardHttpClient.execute(
+            "POST", endpoint, contentType, content.getBytes(StandardCharsets.UTF_8));
 
-        OutputStreamWriter out = new OutputStreamWriter(connection.getOutputStream());
-        out.write(content);
-        out.flush();
-        out.close();
+        Log.d(Forwarder.class.toString(), String.valueOf(response.statusCode));
+        Log.d(Forwarder.class.toString(), response.body);
 
-        BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-        String line;
-        StringBuilder response = new StringBuilder();
-        while ((line = reader.readLine()) != null) {
-            response.append(line);
+        if (response.statusCode >= 400) {
+            long retryAfter = RetryPolicy.parseRetryAfterHeader(response.retryAfter);
+            throw DeliveryException.forStatus("Web endpoint returned status " + response.statusCode, response.statusCode, retryAfter);
         }
-        reader.close();
-
-        Log.d(Forwarder.class.toString(), String.valueOf(connection.getResponseCode()));
-        Log.d(Forwarder.class.toString(), response.toString());
-
-        connection.disconnect();
     }
 
     @Override
     protected Void doInBackground(Void... voids) {
         return null;
     }
-}
\ No newline at end of file
+}
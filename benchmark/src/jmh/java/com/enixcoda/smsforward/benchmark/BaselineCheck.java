@@ -0,0 +1,113 @@
+package com.enixcoda.smsforward.benchmark;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares a JMH JSON result file with the checked-in baseline and exits
+ * with status 1 if any benchmark got slower or allocates more.
+ *
+ * Usage: BaselineCheck baseline.json results.json
+ *
+ * Timings only compare meaningfully between runs on the same kind of
+ * machine, so the tolerance is wide; allocations per operation barely
+ * depend on the machine and are held to a much tighter bound.
+ */
+public final class BaselineCheck {
+    // A benchmark may be this much slower than the baseline before it counts as a regression
+    static final double TIME_TOLERANCE = 0.25;
+    static final double ALLOCATION_TOLERANCE = 0.10;
+    // Absorbs the few bytes of TLAB and profiler noise on benchmarks that allocate almost nothing
+    static final double ALLOCATION_SLACK_BYTES = 16;
+    private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+    private BaselineCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BaselineCheck baseline.json results.json");
+            System.exit(2);
+        }
+        Map<String, JSONObject> baseline = load(args[0]);
+        Map<String, JSONObject> results = load(args[1]);
+
+        int regressions = 0;
+        for (Map.Entry<String, JSONObject> entry : results.entrySet()) {
+            JSONObject before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.println("NEW        " + entry.getKey());
+                continue;
+            }
+            JSONObject after = entry.getValue();
+            boolean higherIsBetter = "thrpt".equals(after.getString("mode"));
+            double scoreBefore = before.getJSONObject("primaryMetric").getDouble("score");
+            double scoreAfter = after.getJSONObject("primaryMetric").getDouble("score");
+            boolean slower = higherIsBetter
+                ? scoreAfter < scoreBefore * (1 - TIME_TOLERANCE)
+                : scoreAfter > scoreBefore * (1 + TIME_TOLERANCE);
+
+            double allocationBefore = allocation(before);
+            double allocationAfter = allocation(after);
+            boolean allocatesMore = allocationBefore >= 0 && allocationAfter >= 0
+                && allocationAfter > allocationBefore * (1 + ALLOCATION_TOLERANCE) + ALLOCATION_SLACK_BYTES;
+
+            String unit = after.getJSONObject("primaryMetric").getString("scoreUnit");
+            System.out.println(String.format("%-10s %s: %.1f -> %.1f %s, %.0f -> %.0f B/op",
+                slower || allocatesMore ? "REGRESSION" : "ok", entry.getKey(),
+                scoreBefore, scoreAfter, unit, allocationBefore, allocationAfter));
+            if (slower || allocatesMore) {
+                regressions++;
+            }
+        }
+        for (String key : baseline.keySet()) {
+            if (!results.containsKey(key)) {
+                System.out.println("MISSING    " + key);
+            }
+        }
+
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmark(s) regressed against " + args[0]);
+            System.exit(1);
+        }
+        System.out.println("No regressions against " + args[0]);
+    }
+
+    /**
+     * @return Results keyed by benchmark name and parameters
+     */
+    private static Map<String, JSONObject> load(String path) throws IOException {
+        JSONArray runs = new JSONArray(new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8));
+        Map<String, JSONObject> results = new LinkedHashMap<>();
+        for (int i = 0; i < runs.length(); i++) {
+            JSONObject run = runs.getJSONObject(i);
+            StringBuilder key = new StringBuilder(run.getString("benchmark"));
+            JSONObject params = run.optJSONObject("params");
+            if (params != null) {
+                Map<String, Object> sorted = new TreeMap<>(params.toMap());
+                key.append(sorted);
+            }
+            results.put(key.toString(), run);
+        }
+        return results;
+    }
+
+    /**
+     * @return Bytes allocated per operation, or -1 if the run was made without the gc profiler
+     */
+    private static double allocation(JSONObject run) {
+        JSONObject secondary = run.optJSONObject("secondaryMetrics");
+        if (secondary == null || !secondary.has(ALLOCATION_METRIC)) {
+            return -1;
+        }
+        return secondary.getJSONObject(ALLOCATION_METRIC).getDouble("score");
+    }
+}
@@ -0,0 +1,46 @@
+package com.enixcoda.smsforward.benchmark;
+
+import java.util.Random;
+
+/**
+ * Deterministic inputs shared by the benchmarks, so runs compare like with like.
+ */
+final class BenchmarkData {
+    private static final String[] FORMATS = {
+        "+1 (%03d) %03d-%04d",
+        "+44 %03d %03d %04d",
+        "0049 %03d %03d%04d",
+        "%03d-%03d-%04d",
+    };
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @return count distinct phone numbers in mixed formats, as a user would type them
+     */
+    static String[] phoneNumbers(int count, long seed) {
+        Random random = new Random(seed);
+        String[] numbers = new String[count];
+        for (int i = 0; i < count; i++) {
+            // The index keeps the numbers distinct, the random part varies the digits
+            numbers[i] = String.format(FORMATS[i % FORMATS.length],
+                200 + random.nextInt(800), i / 10000, i % 10000);
+        }
+        return numbers;
+    }
+
+    /**
+     * @return A message body of the given length, with a line break every 40 characters
+     */
+    static String messageBody(int length, boolean unicode) {
+        String words = unicode
+            ? "Ваш код подтверждения 123456 不要告诉任何人 🔒 "
+            : "Your verification code is 123456. Do not share it. ";
+        StringBuilder body = new StringBuilder(length);
+        while (body.length() < length) {
+            body.append(body.length() % 40 == 39 ? '\n' : words.charAt(body.length() % words.length()));
+        }
+        return body.toString();
+    }
+}
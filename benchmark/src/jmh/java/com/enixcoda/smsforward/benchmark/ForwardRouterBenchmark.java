@@ -0,0 +1,97 @@
+package com.enixcoda.smsforward.benchmark;
+
+import com.enixcoda.smsforward.ForwardRequest;
+import com.enixcoda.smsforward.ForwardRouter;
+import com.enixcoda.smsforward.PhoneNumberUtils;
+import com.enixcoda.smsforward.RoutingRules;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routing of one received message, including the reverse-message parsing
+ * ("To +123:\n...") that every message from a target number goes through.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ForwardRouterBenchmark {
+    // Length of the message body, one SMS part up to a long multipart message
+    @Param({"20", "160", "1000"})
+    public int bodyLength;
+
+    private static final String TARGET = "+15550100001";
+
+    private ForwardRouter router;
+    private String body;
+    private String reverseBody;
+    private String reverseBatchBody;
+    private String cleanedTarget;
+    private String cleanedSender;
+    private int forwarded;
+
+    private final ForwardRouter.Sink sink = new ForwardRouter.Sink() {
+        @Override
+        public void forward(ForwardRequest.Channel channel, String sender, String message, String target,
+                            ForwardRequest.Priority priority) {
+            forwarded += message.length();
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        router = new ForwardRouter(PhoneNumberUtils.parsePhoneNumbers(TARGET + ", +15550100002"), true,
+            Collections.singletonList("123456789"),
+            Collections.singletonList("https://example.com/hook"), RoutingRules.EMPTY);
+        body = BenchmarkData.messageBody(bodyLength, false);
+        reverseBody = "To +15550100003:\n" + body;
+        reverseBatchBody = "To +15550100003, +15550100004:\n" + body + "\nTo +15550100005:\n" + body;
+        cleanedTarget = PhoneNumberUtils.cleanPhoneNumber(TARGET);
+        cleanedSender = PhoneNumberUtils.cleanPhoneNumber("+15550100099");
+    }
+
+    /**
+     * A reverse message from a target number, sent on to the number it names
+     */
+    @Benchmark
+    public int reverseMessage() {
+        router.route(TARGET, cleanedTarget, TARGET, reverseBody, sink);
+        return forwarded;
+    }
+
+    /**
+     * Two reverse commands in one message, the first to two numbers
+     */
+    @Benchmark
+    public int reverseBatch() {
+        router.route(TARGET, cleanedTarget, TARGET, reverseBatchBody, sink);
+        return forwarded;
+    }
+
+    /**
+     * A message from a target number that is not a reverse message and is dropped
+     */
+    @Benchmark
+    public int nonReverseMessageFromTarget() {
+        router.route(TARGET, cleanedTarget, TARGET, body, sink);
+        return forwarded;
+    }
+
+    /**
+     * A regular message forwarded to two numbers, Telegram and Web
+     */
+    @Benchmark
+    public int forwardToAllChannels() {
+        router.route("+15550100099", cleanedSender, "Alice (+15550100099)", body, sink);
+        return forwarded;
+    }
+}
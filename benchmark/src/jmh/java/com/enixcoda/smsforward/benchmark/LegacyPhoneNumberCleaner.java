@@ -0,0 +1,30 @@
+package com.enixcoda.smsforward.benchmark;
+
+/**
+ * The regex based cleanPhoneNumber as it was before PhoneNumberNormalizer,
+ * kept as the baseline for the benchmarks.
+ */
+final class LegacyPhoneNumberCleaner {
+    private LegacyPhoneNumberCleaner() {
+    }
+
+    static String cleanPhoneNumber(String phoneNumber) {
+        if (phoneNumber == null || phoneNumber.isEmpty()) {
+            return "";
+        }
+
+        // Remove all non-digit characters except +
+        String cleaned = phoneNumber.replaceAll("[^\\d+]", "");
+
+        // Remove leading zeros and normalize
+        if (cleaned.startsWith("+")) {
+            return cleaned;
+        } else if (cleaned.startsWith("00")) {
+            return "+" + cleaned.substring(2);
+        } else if (cleaned.length() > 10) {
+            return "+" + cleaned;
+        } else {
+            return cleaned;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.enixcoda.smsforward.benchmark;
+
+import com.enixcoda.smsforward.BlocklistIndex;
+import com.enixcoda.smsforward.ForwardRouter;
+import com.enixcoda.smsforward.PhoneNumberUtils;
+import com.enixcoda.smsforward.RoutingRules;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Target and blocklist handling at list sizes from one number to 100k.
+ *
+ * parsePhoneNumbers runs whenever the settings change; the lookups run for
+ * every received SMS. The list scans in PhoneNumberUtils are measured next
+ * to the indexed lookups the receive path uses (ForwardRouter and
+ * BlocklistIndex). Lookups use a sender that is not on the list, which is
+ * both the common case and the worst case for a scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PhoneNumberListBenchmark {
+    @Param({"1", "100", "10000", "100000"})
+    public int size;
+
+    private static final String SENDER = "+1 (199) 555-0100";
+
+    private String numbersString;
+    private List<String> numbers;
+    private String cleanedSender;
+    private ForwardRouter router;
+    private BlocklistIndex blocklist;
+
+    @Setup
+    public void setUp() {
+        String[] raw = BenchmarkData.phoneNumbers(size, 42);
+        numbersString = String.join(", ", raw);
+        numbers = PhoneNumberUtils.parsePhoneNumbers(numbersString);
+        cleanedSender = PhoneNumberUtils.cleanPhoneNumber(SENDER);
+        router = new ForwardRouter(numbers, true, Collections.<String>emptyList(), Collections.<String>emptyList(),
+            RoutingRules.EMPTY);
+        blocklist = BlocklistIndex.EMPTY.withEntries(numbers);
+    }
+
+    @Benchmark
+    public List<String> parsePhoneNumbers() {
+        return PhoneNumberUtils.parsePhoneNumbers(numbersString);
+    }
+
+    @Benchmark
+    public List<String> parseBlocklistEntries() {
+        return PhoneNumberUtils.parseBlocklistEntries(numbersString);
+    }
+
+    @Benchmark
+    public boolean isSenderInTargetList() {
+        return PhoneNumberUtils.isSenderInTargetList(SENDER, numbers);
+    }
+
+    @Benchmark
+    public boolean isSenderBlocked() {
+        return PhoneNumberUtils.isSenderBlocked(SENDER, numbers);
+    }
+
+    @Benchmark
+    public boolean routerIsTargetNumber() {
+        return router.isTargetNumber(PhoneNumberUtils.cleanPhoneNumber(SENDER));
+    }
+
+    @Benchmark
+    public boolean blocklistIndexIsBlocked() {
+        return blocklist.isBlocked(cleanedSender);
+    }
+
+    @Benchmark
+    public BlocklistIndex blocklistIndexBuild() {
+        return BlocklistIndex.EMPTY.withEntries(numbers);
+    }
+}
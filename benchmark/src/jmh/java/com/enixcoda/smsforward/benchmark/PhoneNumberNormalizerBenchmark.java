@@ -0,0 +1,79 @@
+package com.enixcoda.smsforward.benchmark;
+
+import com.enixcoda.smsforward.PhoneNumberNormalizer;
+import com.enixcoda.smsforward.PhoneNumberUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the legacy regex cleanPhoneNumber with PhoneNumberNormalizer.
+ * Run with the gc profiler (the default for this module) to see the
+ * allocation rate per operation next to the timings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PhoneNumberNormalizerBenchmark {
+    // Mix of formats seen in sender addresses and in the settings screen
+    private static final String[] INPUTS = {
+        "+447700900123",
+        "+1 (555) 123-4567",
+        "0044 20 7946 0958",
+        "5551234567",
+        "15551234567",
+        "555-1234",
+        "+91 98765 43210",
+        "0033 6 12 34 56 78",
+    };
+
+    private final char[] buffer = new char[64];
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void legacyRegex(Blackhole blackhole) {
+        for (String input : INPUTS) {
+            blackhole.consume(LegacyPhoneNumberCleaner.cleanPhoneNumber(input));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void clean(Blackhole blackhole) {
+        for (String input : INPUTS) {
+            blackhole.consume(PhoneNumberNormalizer.clean(input));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void cleanPhoneNumber(Blackhole blackhole) {
+        for (String input : INPUTS) {
+            blackhole.consume(PhoneNumberUtils.cleanPhoneNumber(input));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void normalizeIntoBuffer(Blackhole blackhole) {
+        for (String input : INPUTS) {
+            blackhole.consume(PhoneNumberNormalizer.normalize(input, buffer));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void packedKey(Blackhole blackhole) {
+        for (String input : INPUTS) {
+            blackhole.consume(PhoneNumberNormalizer.packedKey(input));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.enixcoda.smsforward.benchmark;
+
+import com.enixcoda.smsforward.PhoneNumberUtils;
+import com.enixcoda.smsforward.RoutingRules;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching a 160-character message against rule sets of growing size:
+ * three in four rules match body keywords, the rest sender lists, and two
+ * regex rules come last. Matching should cost the same however many rules
+ * there are.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RoutingRulesBenchmark {
+    @Param({"10", "100", "500"})
+    public int ruleCount;
+
+    private static final String SENDER = "+15550100099";
+
+    private RoutingRules rules;
+    private String cleanedSender;
+    private String body;
+    private String bodyWithLastKeyword;
+
+    @Setup
+    public void setUp() {
+        StringBuilder text = new StringBuilder();
+        String lastKeyword = null;
+        for (int i = 0; i < ruleCount; i++) {
+            if (i % 4 == 3) {
+                text.append(String.format(Locale.ROOT, "sender in +1555%07d, +1444%07d -> web\n", i, i));
+            } else {
+                lastKeyword = "alert" + i;
+                text.append("body contains ").append(lastKeyword).append(", notice").append(i).append(" -> telegram\n");
+            }
+        }
+        text.append("body matches /unsubscribe|reply stop/i -> drop\n");
+        text.append("sender matches /^\\+1800/ -> sms\n");
+        rules = RoutingRules.parse(text.toString());
+        cleanedSender = PhoneNumberUtils.cleanPhoneNumber(SENDER);
+        body = BenchmarkData.messageBody(160, false);
+        bodyWithLastKeyword = body.substring(0, 150) + lastKeyword;
+    }
+
+    /**
+     * No rule matches, so the keyword scan, the sender lookup and both regexes all run
+     */
+    @Benchmark
+    public RoutingRules.Rule noMatch() {
+        return rules.match(SENDER, cleanedSender, body);
+    }
+
+    /**
+     * The last keyword rule matches, which cuts the regexes short
+     */
+    @Benchmark
+    public RoutingRules.Rule lastKeywordMatches() {
+        return rules.match(SENDER, cleanedSender, bodyWithLastKeyword);
+    }
+}
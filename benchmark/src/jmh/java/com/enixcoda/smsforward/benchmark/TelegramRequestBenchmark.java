@@ -0,0 +1,61 @@
+package com.enixcoda.smsforward.benchmark;
+
+import com.enixcoda.smsforward.TelegramApi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measuring and streaming the JSON body of a Telegram sendMessage request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TelegramRequestBenchmark {
+    @Param({"false", "true"})
+    public boolean unicode;
+
+    @Param({"160", "1000"})
+    public int bodyLength;
+
+    private String body;
+
+    // Stands in for the connection, counting bytes so the writes are not optimized away
+    private final CountingStream out = new CountingStream();
+
+    static class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        body = BenchmarkData.messageBody(bodyLength, unicode);
+    }
+
+    @Benchmark
+    public long sendMessageBody() throws IOException {
+        TelegramApi.SendMessage request = TelegramApi.forwardMessage("123456789", "Alice (+15550100099)", body);
+        request.writeTo(out);
+        return request.contentLength() + out.count;
+    }
+}
@@ -0,0 +1,66 @@
+package com.enixcoda.smsforward.benchmark;
+
+import com.enixcoda.smsforward.ForwardJournal;
+import com.enixcoda.smsforward.ForwardRequest;
+import com.enixcoda.smsforward.WebhookPayloads;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON bodies for the webhook channel: a single forward, and batches in both batch formats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WebhookPayloadBenchmark {
+    private static final String INSTALLATION_ID = "6f1c1a52-3a0e-4c8e-9d57-2b1f0c1d9e11";
+
+    private final String body = BenchmarkData.messageBody(160, true);
+
+    @State(Scope.Thread)
+    public static class Batch {
+        @Param({"1", "20", "100"})
+        public int batchSize;
+
+        List<ForwardRequest> requests;
+
+        @Setup
+        public void setUp() {
+            String body = BenchmarkData.messageBody(160, true);
+            // newRequest only assigns ids, the journal directory is never touched
+            ForwardJournal journal = new ForwardJournal(new File("unused"));
+            requests = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                requests.add(journal.newRequest(ForwardRequest.Channel.WEB, "Alice (+15550100099)", body, "https://example.com/hook"));
+            }
+        }
+    }
+
+    @Benchmark
+    public String single() throws JSONException {
+        return WebhookPayloads.single("Alice (+15550100099)", body);
+    }
+
+    @Benchmark
+    public String batchJsonArray(Batch batch) throws JSONException {
+        return WebhookPayloads.batch(batch.requests, WebhookPayloads.BatchFormat.JSON_ARRAY, INSTALLATION_ID);
+    }
+
+    @Benchmark
+    public String batchNdjson(Batch batch) throws JSONException {
+        return WebhookPayloads.batch(batch.requests, WebhookPayloads.BatchFormat.NDJSON, INSTALLATION_ID);
+    }
+}
@@ -0,0 +1,141 @@
+package com.enixcoda.smsforward;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Case-insensitive multi-keyword matcher.
+ *
+ * The keywords are compiled once into an Aho-Corasick automaton, so one
+ * left-to-right scan of a text finds every keyword it contains, at a cost
+ * that depends on the text length and not on how many keywords there are.
+ * Each keyword carries a value; a scan reports the smallest value of any
+ * keyword found, which lets {@link RoutingRules} find the first matching
+ * rule without trying the rules one by one. Immutable and thread-safe.
+ */
+public class AhoCorasick {
+    public static final int NO_MATCH = Integer.MAX_VALUE;
+
+    // Transitions of state s are the sorted labels[s] with targets next[s]
+    private final char[][] labels;
+    private final int[][] next;
+    private final int[] fail;
+    // Smallest value of any keyword ending in this state or its fail chain
+    private final int[] value;
+
+    /**
+     * @param keywords Keywords to find, empty ones are ignored
+     * @param values Value reported for each keyword
+     */
+    public AhoCorasick(List<String> keywords, int[] values) {
+        List<StringBuilder> labelList = new ArrayList<>();
+        List<int[]> nextList = new ArrayList<>();
+        List<Integer> valueList = new ArrayList<>();
+        labelList.add(new StringBuilder());
+        nextList.add(new int[0]);
+        valueList.add(NO_MATCH);
+
+        for (int k = 0; k < keywords.size(); k++) {
+            String keyword = keywords.get(k);
+            if (keyword.isEmpty()) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                // Lowercased per char, exactly as the scanned text is
+                char c = Character.toLowerCase(keyword.charAt(i));
+                int index = labelList.get(state).indexOf(String.valueOf(c));
+                if (index >= 0) {
+                    state = nextList.get(state)[index];
+                    continue;
+                }
+                int created = labelList.size();
+                labelList.add(new StringBuilder());
+                nextList.add(new int[0]);
+                valueList.add(NO_MATCH);
+                labelList.get(state).append(c);
+                int[] targets = Arrays.copyOf(nextList.get(state), labelList.get(state).length());
+                targets[targets.length - 1] = created;
+                nextList.set(state, targets);
+                state = created;
+            }
+            valueList.set(state, Math.min(valueList.get(state), values[k]));
+        }
+
+        int states = labelList.size();
+        labels = new char[states][];
+        next = new int[states][];
+        fail = new int[states];
+        value = new int[states];
+        for (int s = 0; s < states; s++) {
+            sortTransitions(s, labelList.get(s).toString().toCharArray(), nextList.get(s));
+            value[s] = valueList.get(s);
+        }
+
+        // Breadth-first, so every fail target is complete before the states that point to it
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int child : next[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int i = 0; i < labels[state].length; i++) {
+                char c = labels[state][i];
+                int child = next[state][i];
+                int f = fail[state];
+                while (f != 0 && step(f, c) < 0) {
+                    f = fail[f];
+                }
+                int target = step(f, c);
+                fail[child] = target >= 0 ? target : 0;
+                value[child] = Math.min(value[child], value[fail[child]]);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * @return The smallest value of any keyword contained in text, or {@link #NO_MATCH}
+     */
+    public int firstMatch(CharSequence text) {
+        int best = NO_MATCH;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            int target;
+            while ((target = step(state, c)) < 0 && state != 0) {
+                state = fail[state];
+            }
+            state = target >= 0 ? target : 0;
+            if (value[state] < best) {
+                best = value[state];
+            }
+        }
+        return best;
+    }
+
+    public int size() {
+        return labels.length;
+    }
+
+    private int step(int state, char c) {
+        int index = Arrays.binarySearch(labels[state], c);
+        return index >= 0 ? next[state][index] : -1;
+    }
+
+    private void sortTransitions(int state, char[] stateLabels, int[] targets) {
+        Integer[] order = new Integer[stateLabels.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Character.compare(stateLabels[a], stateLabels[b]));
+        labels[state] = new char[order.length];
+        next[state] = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            labels[state][i] = stateLabels[order[i]];
+            next[state][i] = targets[order[i]];
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.enixcoda.smsforward;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Precomputed index over the blocked numbers, giving the same answers as
+ * {@link PhoneNumberUtils#isSenderBlocked} without walking the whole list.
+ *
+ * - Exact matches are a hash set lookup on normalized numbers.
+ * - Suffix matches (a country code missing on either side, both numbers at
+ *   least {@link #MIN_SUFFIX_MATCH_LENGTH} long) walk a trie of the blocked
+ *   numbers with their digits reversed.
+ * - Entries ending in '*', such as +1900*, are prefix wildcards and walk a
+ *   trie of the prefixes.
+ *
+ * Lookups take time proportional to the length of the sender number and
+ * allocate nothing. An index is immutable once built; {@link #withEntries}
+ * builds a new one from scratch when the entries changed.
+ */
+public class BlocklistIndex {
+    static final int MIN_SUFFIX_MATCH_LENGTH = 7;
+    static final char WILDCARD = '*';
+
+    public static final BlocklistIndex EMPTY = new BlocklistIndex(Collections.<String>emptySet());
+
+    private final Set<String> entries;
+    private final Set<String> exactNumbers = new HashSet<>();
+    private final Trie reversedNumbers = new Trie();
+    private final Trie prefixes = new Trie();
+
+    private BlocklistIndex(Set<String> entries) {
+        this.entries = entries;
+        for (String entry : entries) {
+            if (isWildcard(entry)) {
+                prefixes.add(entry, 0, entry.length() - 1, false);
+            } else {
+                exactNumbers.add(entry);
+                if (entry.length() >= MIN_SUFFIX_MATCH_LENGTH) {
+                    reversedNumbers.add(entry, 0, entry.length(), true);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param newEntries Normalized numbers, and normalized prefixes followed by '*'
+     * @return This index if it already covers exactly newEntries, otherwise a new one built for them
+     */
+    public BlocklistIndex withEntries(Collection<String> newEntries) {
+        Set<String> target = new HashSet<>();
+        for (String entry : newEntries) {
+            if (entry != null && !entry.isEmpty() && !entry.equals(String.valueOf(WILDCARD))) {
+                target.add(entry);
+            }
+        }
+        if (target.equals(entries)) {
+            return this;
+        }
+        return new BlocklistIndex(Collections.unmodifiableSet(target));
+    }
+
+    /**
+     * @param cleanedSender Sender number normalized with {@link PhoneNumberUtils#cleanPhoneNumber}
+     * @return true if the sender matches a blocked number or wildcard prefix
+     */
+    public boolean isBlocked(String cleanedSender) {
+        int length = cleanedSender.length();
+        if (length == 0 || entries.isEmpty()) {
+            return false;
+        }
+        if (exactNumbers.contains(cleanedSender)) {
+            return true;
+        }
+        if (length >= MIN_SUFFIX_MATCH_LENGTH && matchesSuffix(cleanedSender)) {
+            return true;
+        }
+        if (prefixes.hasAnyPrefixOf(cleanedSender, 0)) {
+            return true;
+        }
+        // Let "1900*" also match senders in international format ("+1900...")
+        return cleanedSender.charAt(0) == '+' && prefixes.hasAnyPrefixOf(cleanedSender, 1);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private boolean matchesSuffix(String cleanedSender) {
+        int node = Trie.ROOT;
+        for (int i = cleanedSender.length() - 1, depth = 1; i >= 0; i--, depth++) {
+            node = reversedNumbers.child(node, cleanedSender.charAt(i));
+            if (node == Trie.NONE) {
+                return false;
+            }
+            // Sender ends with a blocked number
+            if (depth >= MIN_SUFFIX_MATCH_LENGTH && reversedNumbers.isTerminal(node)) {
+                return true;
+            }
+        }
+        // A blocked number ends with the whole sender
+        return reversedNumbers.hasTerminalBelow(node);
+    }
+
+    static boolean isWildcard(String entry) {
+        return entry.charAt(entry.length() - 1) == WILDCARD;
+    }
+
+    /**
+     * Array-backed trie over the characters of normalized numbers ('0'-'9' and '+').
+     * Each node keeps the number of entries ending at it and below it.
+     */
+    static class Trie {
+        static final int ROOT = 0;
+        static final int NONE = -1;
+        private static final int ALPHABET = 11;
+
+        private int[] children;
+        private int[] terminalCounts;
+        private int[] subtreeCounts;
+        private int nodeCount;
+        private int entryCount;
+
+        Trie() {
+            int capacity = 16;
+            children = new int[capacity * ALPHABET];
+            Arrays.fill(children, NONE);
+            terminalCounts = new int[capacity];
+            subtreeCounts = new int[capacity];
+            nodeCount = 1;
+        }
+
+        int child(int node, char c) {
+            int symbol = symbol(c);
+            return symbol < 0 ? NONE : children[node * ALPHABET + symbol];
+        }
+
+        boolean isTerminal(int node) {
+            return terminalCounts[node] > 0;
+        }
+
+        boolean hasTerminalBelow(int node) {
+            return subtreeCounts[node] > 0;
+        }
+
+        boolean hasAnyPrefixOf(String value, int start) {
+            if (entryCount == 0) {
+                return false;
+            }
+            int node = ROOT;
+            for (int i = start; i < value.length(); i++) {
+                node = child(node, value.charAt(i));
+                if (node == NONE) {
+                    return false;
+                }
+                if (terminalCounts[node] > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Add the characters value[start, end), last to first if reversed
+         */
+        void add(String value, int start, int end, boolean reversed) {
+            if (end <= start) {
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                if (symbol(value.charAt(i)) < 0) {
+                    return;
+                }
+            }
+
+            int node = ROOT;
+            subtreeCounts[node]++;
+            for (int i = 0; i < end - start; i++) {
+                char c = value.charAt(reversed ? end - 1 - i : start + i);
+                int slot = node * ALPHABET + symbol(c);
+                if (children[slot] == NONE) {
+                    // newNode() may replace the arrays, so take the index before storing it
+                    int created = newNode();
+                    children[slot] = created;
+                }
+                node = children[slot];
+                subtreeCounts[node]++;
+            }
+            terminalCounts[node]++;
+            entryCount++;
+        }
+
+        private int newNode() {
+            if (nodeCount == terminalCounts.length) {
+                int capacity = Math.max(16, nodeCount * 2);
+                int oldLength = children.length;
+                children = Arrays.copyOf(children, capacity * ALPHABET);
+                Arrays.fill(children, oldLength, children.length, NONE);
+                terminalCounts = Arrays.copyOf(terminalCounts, capacity);
+                subtreeCounts = Arrays.copyOf(subtreeCounts, capacity);
+            }
+            return nodeCount++;
+        }
+
+        private static int symbol(char c) {
+            if (c >= '0' && c <= '9') {
+                return c - '0';
+            }
+            return c == '+' ? 10 : -1;
+        }
+    }
+}
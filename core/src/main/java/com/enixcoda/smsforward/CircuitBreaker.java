@@ -0,0 +1,146 @@
+package com.enixcoda.smsforward;
+
+/**
+ * Circuit breaker for one webhook endpoint.
+ *
+ * CLOSED: calls go through and the last {@link #WINDOW} outcomes are kept.
+ * Once at least {@link #MIN_CALLS} are known and half or more of them failed
+ * or took longer than {@link #SLOW_CALL_MS}, the breaker OPENS: no calls for
+ * a while, so forwards to a dead endpoint wait in the queue instead of each
+ * holding a delivery thread for the connect and read timeouts. It then goes
+ * HALF_OPEN and lets a single probe through; success closes it again,
+ * failure reopens it for twice as long, up to {@link #MAX_OPEN_MS}.
+ *
+ * Callers pass elapsedRealtime() as now.
+ */
+public class CircuitBreaker {
+    private static final String TAG = "CircuitBreaker";
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    static final int WINDOW = 20;
+    static final int MIN_CALLS = 5;
+    static final double FAILURE_RATE_THRESHOLD = 0.5;
+    // Half the read timeout: an endpoint this slow is tying up threads even when it answers
+    static final long SLOW_CALL_MS = 5000;
+    static final long INITIAL_OPEN_MS = 30 * 1000;
+    static final long MAX_OPEN_MS = 10 * 60 * 1000;
+
+    private State state = State.CLOSED;
+    // Ring buffer of recent outcomes, true for a failed or slow call
+    private final boolean[] outcomes = new boolean[WINDOW];
+    private int recorded;
+    private int nextOutcome;
+    private int failures;
+    private long openUntil;
+    private long openMillis = INITIAL_OPEN_MS;
+    private boolean probeInFlight;
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * Ask to make a call. In HALF_OPEN a call that is allowed is the probe, so it must be
+     * followed by {@link #record} or {@link #release}.
+     * @return 0 if the call may be made now, otherwise milliseconds to wait before asking again
+     */
+    public synchronized long tryAcquire(long now) {
+        if (state == State.OPEN) {
+            if (now < openUntil) {
+                return openUntil - now;
+            }
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probeInFlight) {
+                // Callers are woken when the probe finishes; this is only a fallback
+                return INITIAL_OPEN_MS;
+            }
+            probeInFlight = true;
+        }
+        return 0;
+    }
+
+    /**
+     * A call allowed by {@link #tryAcquire} was not made after all
+     */
+    public synchronized void release() {
+        probeInFlight = false;
+    }
+
+    /**
+     * @param latencyMillis How long the call took
+     * @param failed true if the endpoint could not be reached or answered with a server error
+     */
+    public synchronized void record(long now, long latencyMillis, boolean failed) {
+        latency.record(latencyMillis * 1000);
+        boolean bad = failed || latencyMillis >= SLOW_CALL_MS;
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+            if (bad) {
+                open(now, Math.min(openMillis * 2, MAX_OPEN_MS));
+            } else {
+                close();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            // Started before the breaker opened
+            return;
+        }
+        if (recorded == WINDOW && outcomes[nextOutcome]) {
+            failures--;
+        }
+        outcomes[nextOutcome] = bad;
+        nextOutcome = (nextOutcome + 1) % WINDOW;
+        recorded = Math.min(recorded + 1, WINDOW);
+        if (bad) {
+            failures++;
+        }
+        if (recorded >= MIN_CALLS && failures >= FAILURE_RATE_THRESHOLD * recorded) {
+            open(now, INITIAL_OPEN_MS);
+        }
+    }
+
+    public synchronized State getState(long now) {
+        return state == State.OPEN && now >= openUntil ? State.HALF_OPEN : state;
+    }
+
+    /**
+     * @return One line for the settings screen: state, recent failures and latency percentiles
+     */
+    public synchronized String summary(long now) {
+        StringBuilder summary = new StringBuilder();
+        State current = getState(now);
+        if (current == State.OPEN) {
+            summary.append("open, retrying in ").append((openUntil - now + 999) / 1000).append(" s");
+        } else {
+            summary.append(current == State.CLOSED ? "healthy" : "half-open, probing");
+            summary.append(", ").append(failures).append('/').append(recorded).append(" recent calls failed or slow");
+        }
+        LatencyHistogram.Snapshot snapshot = latency.snapshot();
+        if (snapshot.count > 0) {
+            summary.append(", p50 ").append(snapshot.p50Micros / 1000)
+                .append(" ms, p99 ").append(snapshot.p99Micros / 1000).append(" ms");
+        }
+        return summary.toString();
+    }
+
+    private void open(long now, long duration) {
+        state = State.OPEN;
+        openMillis = duration;
+        openUntil = now + duration;
+        CoreLog.w(TAG, "Endpoint failing, pausing calls for " + duration / 1000 + "s");
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        openMillis = INITIAL_OPEN_MS;
+        recorded = 0;
+        nextOutcome = 0;
+        failures = 0;
+    }
+}
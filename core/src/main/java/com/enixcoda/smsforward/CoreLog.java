@@ -0,0 +1,31 @@
+package com.enixcoda.smsforward;
+
+/**
+ * Logging for core classes, with the same calls as android.util.Log.
+ *
+ * Output is discarded until a {@link Logger} is installed, so benchmarks and
+ * tests on a plain JVM measure the code rather than the console. The app
+ * routes it to android.util.Log when its process starts.
+ */
+public final class CoreLog {
+    private static volatile Logger logger = Logger.NONE;
+
+    private CoreLog() {
+    }
+
+    public static void setLogger(Logger logger) {
+        CoreLog.logger = logger != null ? logger : Logger.NONE;
+    }
+
+    public static void d(String tag, String message) {
+        logger.d(tag, message);
+    }
+
+    public static void w(String tag, String message) {
+        logger.w(tag, message);
+    }
+
+    public static void e(String tag, String message, Throwable error) {
+        logger.e(tag, message, error);
+    }
+}
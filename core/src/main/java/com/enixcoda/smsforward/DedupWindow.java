@@ -0,0 +1,150 @@
+package com.enixcoda.smsforward;
+
+/**
+ * Sliding-window duplicate detector for received messages.
+ *
+ * Each message is reduced to a 64-bit FNV-1a fingerprint of its normalized
+ * sender and body. Fingerprints live in a fixed-size ring in arrival order,
+ * mirrored in an open-addressing hash set, so checking a message allocates
+ * nothing and takes constant time. Entries older than the window fall out of
+ * the ring; when more than {@link #DEFAULT_CAPACITY} messages arrive within
+ * one window, the oldest are forgotten early.
+ *
+ * Not thread safe; only used from the {@link SmsPipeline} worker.
+ */
+public class DedupWindow {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long EMPTY = 0;
+
+    // Ring of fingerprints and the time each was first seen, oldest at tail
+    private final long[] ringFingerprints;
+    private final long[] ringTimes;
+    private int tail;
+    private int size;
+
+    // Linear probing set of the fingerprints in the ring
+    private final long[] tableFingerprints;
+    private final int tableMask;
+
+    public DedupWindow() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public DedupWindow(int capacity) {
+        ringFingerprints = new long[capacity];
+        ringTimes = new long[capacity];
+        // Keep the table at most half full so probe sequences stay short
+        int tableSize = Integer.highestOneBit(Math.max(capacity, 1) * 4 - 1);
+        tableFingerprints = new long[tableSize];
+        tableMask = tableSize - 1;
+    }
+
+    /**
+     * Check a message against the window and remember it if it is new
+     * @param fingerprint From {@link #fingerprint}
+     * @param now elapsedRealtime()
+     * @param windowMs How long a message suppresses its copies
+     * @return true if the same message was already seen within the window
+     */
+    public boolean isDuplicate(long fingerprint, long now, long windowMs) {
+        while (size > 0 && now - ringTimes[tail] >= windowMs) {
+            evictTail();
+        }
+        if (find(fingerprint) >= 0) {
+            return true;
+        }
+
+        if (size == ringFingerprints.length) {
+            evictTail();
+        }
+        int ringIndex = (tail + size) % ringFingerprints.length;
+        ringFingerprints[ringIndex] = fingerprint;
+        ringTimes[ringIndex] = now;
+        size++;
+
+        int slot = home(fingerprint);
+        while (tableFingerprints[slot] != EMPTY) {
+            slot = (slot + 1) & tableMask;
+        }
+        tableFingerprints[slot] = fingerprint;
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param cleanedSender Sender normalized with {@link PhoneNumberUtils#cleanPhoneNumber}
+     * @param body Message body
+     * @return A non-zero 64-bit fingerprint of the pair
+     */
+    public static long fingerprint(String cleanedSender, String body) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = mix(hash, cleanedSender);
+        // Separator so ("12", "3") and ("1", "23") differ
+        hash = (hash ^ 0xff) * FNV_PRIME;
+        hash = mix(hash, body);
+        return hash != EMPTY ? hash : 1;
+    }
+
+    private static long mix(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private int find(long fingerprint) {
+        int slot = home(fingerprint);
+        while (tableFingerprints[slot] != EMPTY) {
+            if (tableFingerprints[slot] == fingerprint) {
+                return slot;
+            }
+            slot = (slot + 1) & tableMask;
+        }
+        return -1;
+    }
+
+    private void evictTail() {
+        int slot = find(ringFingerprints[tail]);
+        if (slot >= 0) {
+            removeSlot(slot);
+        }
+        tail = (tail + 1) % ringFingerprints.length;
+        size--;
+    }
+
+    /**
+     * Delete by shifting later entries of the probe run back, so no tombstones are needed
+     */
+    private void removeSlot(int hole) {
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & tableMask;
+            long fingerprint = tableFingerprints[slot];
+            if (fingerprint == EMPTY) {
+                break;
+            }
+            int home = home(fingerprint);
+            // Move the entry into the hole unless its home lies cyclically in (hole, slot]
+            boolean homeBetween = hole <= slot
+                ? home > hole && home <= slot
+                : home > hole || home <= slot;
+            if (!homeBetween) {
+                tableFingerprints[hole] = fingerprint;
+                hole = slot;
+            }
+        }
+        tableFingerprints[hole] = EMPTY;
+    }
+
+    private int home(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32)) & tableMask;
+    }
+}
@@ -0,0 +1,59 @@
+package com.enixcoda.smsforward;
+
+import java.io.IOException;
+
+/**
+ * A failed delivery attempt, with enough detail for {@link RetryPolicy}
+ * to decide whether and when to try again.
+ */
+public class DeliveryException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    static final int NO_STATUS = -1;
+    static final long NO_RETRY_AFTER = -1;
+
+    final int statusCode;
+    final long retryAfterMillis;
+    final boolean permanent;
+    // Nothing was attempted: a local rate limit deferred the forward, so it does not count as a failed attempt
+    final boolean throttled;
+
+    public DeliveryException(String message, int statusCode, long retryAfterMillis, boolean permanent) {
+        this(message, statusCode, retryAfterMillis, permanent, false);
+    }
+
+    private DeliveryException(String message, int statusCode, long retryAfterMillis, boolean permanent, boolean throttled) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+        this.permanent = permanent;
+        this.throttled = throttled;
+    }
+
+    /**
+     * Build an exception for an HTTP error status
+     * @param message Description of the failure
+     * @param statusCode HTTP status returned by the server
+     * @param retryAfterMillis Delay requested by the server, or {@link #NO_RETRY_AFTER}
+     */
+    public static DeliveryException forStatus(String message, int statusCode, long retryAfterMillis) {
+        return new DeliveryException(message, statusCode, retryAfterMillis, isPermanentStatus(statusCode));
+    }
+
+    /**
+     * Build an exception for a forward held back by a local rate limiter
+     * @param message Description of the limit
+     * @param retryAfterMillis When the limiter will have capacity again
+     */
+    public static DeliveryException throttled(String message, long retryAfterMillis) {
+        return new DeliveryException(message, NO_STATUS, retryAfterMillis, false, true);
+    }
+
+    /**
+     * Client errors won't succeed on a retry, except timeouts, "too early" and rate limiting
+     */
+    static boolean isPermanentStatus(int statusCode) {
+        return statusCode >= 400 && statusCode < 500
+            && statusCode != 408 && statusCode != 425 && statusCode != 429;
+    }
+}
@@ -0,0 +1,110 @@
+package com.enixcoda.smsforward;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs deliveries on a separate bounded executor per channel, so a slow
+ * webhook can never hold up Telegram deliveries (or the other way round).
+ *
+ * Each channel has its own parallelism and queue depth. When a channel's
+ * queue is full {@link #trySubmit} refuses the work instead of blocking;
+ * the forward simply stays in the durable {@link ForwardQueue} until the
+ * channel has room again.
+ */
+public class ForwardDispatcher {
+    private static final String TAG = "ForwardDispatcher";
+
+    // Sends to different chats run in parallel, paced by TelegramRateLimiter
+    static final int DEFAULT_TELEGRAM_PARALLELISM = 4;
+    static final int DEFAULT_WEB_PARALLELISM = 4;
+    static final int DEFAULT_QUEUE_DEPTH = 32;
+    // SmsManager queues sends per subscription anyway, so one thread is enough
+    static final int SMS_PARALLELISM = 1;
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 30;
+
+    private final Map<ForwardRequest.Channel, ThreadPoolExecutor> executors = new EnumMap<>(ForwardRequest.Channel.class);
+    private final int telegramParallelism;
+    private final int webParallelism;
+    private final int queueDepth;
+
+    public ForwardDispatcher(int telegramParallelism, int webParallelism, int queueDepth) {
+        this.telegramParallelism = telegramParallelism;
+        this.webParallelism = webParallelism;
+        this.queueDepth = queueDepth;
+        executors.put(ForwardRequest.Channel.TELEGRAM, createExecutor("telegram", telegramParallelism, queueDepth));
+        executors.put(ForwardRequest.Channel.WEB, createExecutor("web", webParallelism, queueDepth));
+        ThreadPoolExecutor smsExecutor = createExecutor("sms", SMS_PARALLELISM, queueDepth);
+        executors.put(ForwardRequest.Channel.SMS, smsExecutor);
+        executors.put(ForwardRequest.Channel.SMS_REPLY, smsExecutor);
+        CoreLog.d(TAG, "Dispatcher created: telegram=" + telegramParallelism + ", web=" + webParallelism + ", queueDepth=" + queueDepth);
+    }
+
+    /**
+     * @return true if this dispatcher was created with the given limits
+     */
+    public boolean matches(int telegramParallelism, int webParallelism, int queueDepth) {
+        return this.telegramParallelism == telegramParallelism
+            && this.webParallelism == webParallelism
+            && this.queueDepth == queueDepth;
+    }
+
+    /**
+     * Hand a delivery to its channel's executor
+     * @return false if the channel is saturated and the caller should try again later
+     */
+    public boolean trySubmit(ForwardRequest.Channel channel, Runnable delivery) {
+        ThreadPoolExecutor executor = executors.get(channel);
+        if (executor == null || executor.isShutdown()) {
+            return false;
+        }
+        try {
+            executor.execute(delivery);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stop accepting work. Deliveries already handed over are allowed to finish.
+     */
+    public void shutdown() {
+        for (ThreadPoolExecutor executor : executors.values()) {
+            executor.shutdown();
+        }
+    }
+
+    private static ThreadPoolExecutor createExecutor(String name, int parallelism, int queueDepth) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            parallelism, parallelism,
+            IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueDepth),
+            new NamedThreadFactory("Forward-" + name),
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+        // Don't keep idle delivery threads around between bursts
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, prefix + "-" + count.incrementAndGet());
+        }
+    }
+}
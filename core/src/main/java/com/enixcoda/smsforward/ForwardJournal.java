@@ -0,0 +1,387 @@
+package com.enixcoda.smsforward;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, crash-safe journal of outbound forwards.
+ *
+ * Records are written to numbered segment files as
+ * [length][payload][crc32]. An APPEND record stores a new forward, an
+ * ATTEMPT record updates its failed attempt count and an ACK record marks
+ * it delivered (or given up on). Every segment starts with a HIGH_WATER
+ * record holding the largest id issued so far, so ids keep increasing even
+ * after all the segments that used them were deleted. On startup the
+ * segments are replayed and every APPEND without a matching ACK is returned
+ * as pending. A torn record at the end of a segment (process killed
+ * mid-write) is truncated away.
+ *
+ * Writes are buffered and only reach the disk on {@link #sync()}, so callers
+ * can batch several appends behind a single fsync. Fully acknowledged
+ * segments are deleted oldest-first, which keeps every ACK in the same or a
+ * later segment than the APPEND it refers to.
+ */
+public class ForwardJournal {
+    private static final String TAG = "ForwardJournal";
+
+    private static final byte RECORD_APPEND = 1;
+    private static final byte RECORD_ACK = 2;
+    private static final byte RECORD_ATTEMPT = 3;
+    private static final byte RECORD_HIGH_WATER = 4;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    static final long MAX_SEGMENT_BYTES = 256 * 1024;
+    private static final int MAX_RECORD_BYTES = 1024 * 1024;
+
+    private final File directory;
+    // Segment number -> number of appends in it that are not yet acknowledged
+    private final TreeMap<Integer, Integer> liveCounts = new TreeMap<>();
+    private final CRC32 crc = new CRC32();
+
+    private long nextId = 1;
+    private int activeSegment;
+    private FileOutputStream activeFile;
+    private DataOutputStream activeOut;
+    private long activeSize;
+    private boolean dirty;
+
+    public ForwardJournal(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Replay all segments and open a fresh segment for new records
+     * @return Forwards that were appended but never acknowledged, oldest first
+     */
+    public synchronized List<ForwardRequest> open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + directory);
+        }
+
+        TreeMap<Long, ForwardRequest> pending = new TreeMap<>();
+        int[] segments = listSegments();
+        for (int i = 0; i < segments.length; i++) {
+            liveCounts.put(segments[i], 0);
+            replaySegment(segments[i], pending, i == segments.length - 1);
+        }
+
+        activeSegment = segments.length == 0 ? 1 : segments[segments.length - 1] + 1;
+        openActiveSegment();
+        deleteAcknowledgedSegments();
+
+        CoreLog.d(TAG, "Journal opened with " + pending.size() + " pending forwards in " + liveCounts.size() + " segments");
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * Create a forward with the next journal id. It is not persisted until {@link #append}.
+     */
+    public synchronized ForwardRequest newRequest(ForwardRequest.Channel channel, String sender, String message, String target) {
+        return new ForwardRequest(nextId++, channel, System.currentTimeMillis(), sender, message, target);
+    }
+
+    /**
+     * Buffer an APPEND record for the given forward. Call {@link #sync()} to make it durable.
+     */
+    public synchronized void append(ForwardRequest request) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + request.message.length() * 2);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeByte(RECORD_APPEND);
+        payload.writeLong(request.id);
+        payload.writeLong(request.createdAt);
+        payload.writeByte(request.channel.code);
+        writeString(payload, request.sender);
+        writeString(payload, request.message);
+        writeString(payload, request.target);
+
+        writeRecord(bytes.toByteArray());
+        request.segment = activeSegment;
+        liveCounts.put(activeSegment, liveCounts.get(activeSegment) + 1);
+        rollSegmentIfFull();
+    }
+
+    /**
+     * Buffer an ACK record for a delivered forward.
+     * Acks are not synced eagerly: losing one only causes a redelivery after a crash.
+     */
+    public synchronized void ack(ForwardRequest request) throws IOException {
+        if (request.segment <= 0) {
+            // Never made it to disk, nothing to acknowledge
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeByte(RECORD_ACK);
+        payload.writeLong(request.id);
+        writeRecord(bytes.toByteArray());
+
+        releaseAppend(request.segment);
+        request.segment = 0;
+        rollSegmentIfFull();
+        deleteAcknowledgedSegments();
+    }
+
+    /**
+     * Buffer an ATTEMPT record so the retry budget of a forward survives a restart
+     */
+    public synchronized void recordAttempt(ForwardRequest request) throws IOException {
+        if (request.segment <= 0) {
+            return;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeByte(RECORD_ATTEMPT);
+        payload.writeLong(request.id);
+        payload.writeInt(request.attempts);
+        writeRecord(bytes.toByteArray());
+        rollSegmentIfFull();
+    }
+
+    /**
+     * Flush buffered records and fsync the active segment
+     */
+    public synchronized void sync() throws IOException {
+        if (!dirty || activeOut == null) {
+            return;
+        }
+        activeOut.flush();
+        activeFile.getFD().sync();
+        dirty = false;
+    }
+
+    public synchronized void close() {
+        try {
+            sync();
+        } catch (IOException e) {
+            CoreLog.e(TAG, "Error syncing journal on close: " + e.getMessage(), e);
+        }
+        closeActiveSegment();
+    }
+
+    private void writeRecord(byte[] payload) throws IOException {
+        if (activeOut == null) {
+            throw new IOException("Journal is not open");
+        }
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+
+        activeOut.writeInt(payload.length);
+        activeOut.write(payload);
+        activeOut.writeInt((int) crc.getValue());
+        activeSize += payload.length + 8;
+        dirty = true;
+    }
+
+    private void replaySegment(int segment, TreeMap<Long, ForwardRequest> pending, boolean isLast) throws IOException {
+        File file = segmentFile(segment);
+        long validBytes = 0;
+        boolean torn = false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_BYTES) {
+                    torn = true;
+                    break;
+                }
+
+                byte[] payload = new byte[length];
+                int storedCrc;
+                try {
+                    in.readFully(payload);
+                    storedCrc = in.readInt();
+                } catch (EOFException e) {
+                    torn = true;
+                    break;
+                }
+
+                crc.reset();
+                crc.update(payload, 0, payload.length);
+                if ((int) crc.getValue() != storedCrc) {
+                    torn = true;
+                    break;
+                }
+
+                applyRecord(segment, payload, pending);
+                validBytes += length + 8;
+            }
+        }
+
+        if (torn) {
+            CoreLog.w(TAG, "Segment " + segment + " has a damaged record after " + validBytes + " bytes");
+            if (isLast) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(validBytes);
+                }
+            }
+        }
+    }
+
+    private void applyRecord(int segment, byte[] bytes, TreeMap<Long, ForwardRequest> pending) throws IOException {
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte type = payload.readByte();
+        // For HIGH_WATER records the id is the largest one issued before the segment was started
+        long id = payload.readLong();
+        nextId = Math.max(nextId, id + 1);
+
+        if (type == RECORD_APPEND) {
+            long createdAt = payload.readLong();
+            ForwardRequest.Channel channel;
+            try {
+                channel = ForwardRequest.Channel.fromCode(payload.readByte());
+            } catch (IllegalArgumentException e) {
+                CoreLog.w(TAG, "Skipping forward #" + id + ": " + e.getMessage());
+                return;
+            }
+            String sender = readString(payload);
+            String message = readString(payload);
+            String target = readString(payload);
+
+            ForwardRequest request = new ForwardRequest(id, channel, createdAt, sender, message, target);
+            request.segment = segment;
+            pending.put(id, request);
+            liveCounts.put(segment, liveCounts.get(segment) + 1);
+        } else if (type == RECORD_ACK) {
+            ForwardRequest request = pending.remove(id);
+            if (request != null) {
+                releaseAppend(request.segment);
+            }
+        } else if (type == RECORD_ATTEMPT) {
+            ForwardRequest request = pending.get(id);
+            if (request != null) {
+                request.attempts = payload.readInt();
+            }
+        }
+    }
+
+    private void releaseAppend(int segment) {
+        Integer live = liveCounts.get(segment);
+        if (live != null && live > 0) {
+            liveCounts.put(segment, live - 1);
+        }
+    }
+
+    private void rollSegmentIfFull() throws IOException {
+        if (activeSize < MAX_SEGMENT_BYTES) {
+            return;
+        }
+        sync();
+        closeActiveSegment();
+        activeSegment++;
+        openActiveSegment();
+    }
+
+    private void openActiveSegment() throws IOException {
+        File file = segmentFile(activeSegment);
+        activeFile = new FileOutputStream(file, true);
+        activeOut = new DataOutputStream(new BufferedOutputStream(activeFile, 8192));
+        activeSize = file.length();
+        liveCounts.put(activeSegment, 0);
+        if (activeSize == 0) {
+            // Synced before any older segment can be deleted
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+            DataOutputStream payload = new DataOutputStream(bytes);
+            payload.writeByte(RECORD_HIGH_WATER);
+            payload.writeLong(nextId - 1);
+            writeRecord(bytes.toByteArray());
+            sync();
+        }
+    }
+
+    private void closeActiveSegment() {
+        if (activeOut == null) {
+            return;
+        }
+        try {
+            activeOut.close();
+        } catch (IOException e) {
+            CoreLog.e(TAG, "Error closing segment " + activeSegment + ": " + e.getMessage(), e);
+        }
+        activeOut = null;
+        activeFile = null;
+    }
+
+    private void deleteAcknowledgedSegments() {
+        while (!liveCounts.isEmpty()) {
+            int oldest = liveCounts.firstKey();
+            if (oldest == activeSegment || liveCounts.get(oldest) > 0) {
+                return;
+            }
+            File file = segmentFile(oldest);
+            if (file.exists() && !file.delete()) {
+                CoreLog.w(TAG, "Could not delete acknowledged segment " + file);
+                return;
+            }
+            liveCounts.remove(oldest);
+            CoreLog.d(TAG, "Deleted acknowledged segment " + oldest);
+        }
+    }
+
+    private int[] listSegments() {
+        String[] names = directory.list();
+        if (names == null) {
+            return new int[0];
+        }
+        int[] segments = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    int segment = Integer.parseInt(
+                        name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    segments[count++] = segment;
+                } catch (NumberFormatException e) {
+                    CoreLog.w(TAG, "Ignoring unexpected file in journal: " + name);
+                }
+            }
+        }
+        int[] result = Arrays.copyOf(segments, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private File segmentFile(int segment) {
+        return new File(directory, String.format(Locale.US, "%s%06d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_RECORD_BYTES) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,72 @@
+package com.enixcoda.smsforward;
+
+/**
+ * A single outbound forward waiting in the {@link ForwardJournal}.
+ * Instances are immutable apart from the in-memory delivery bookkeeping
+ * used by the drain worker.
+ */
+public class ForwardRequest {
+    public enum Channel {
+        TELEGRAM(1),
+        WEB(2),
+        // Forward of an incoming SMS to a target number, sent with a "From ..." header
+        SMS(3),
+        // Reverse message from a target number, sent as is
+        SMS_REPLY(4);
+
+        final int code;
+
+        Channel(int code) {
+            this.code = code;
+        }
+
+        static Channel fromCode(int code) {
+            for (Channel channel : values()) {
+                if (channel.code == code) {
+                    return channel;
+                }
+            }
+            throw new IllegalArgumentException("Unknown channel code: " + code);
+        }
+    }
+
+    /**
+     * Drain order: due HIGH forwards are handed to their channel before NORMAL ones
+     */
+    public enum Priority {
+        NORMAL,
+        HIGH
+    }
+
+    final long id;
+    final Channel channel;
+    final long createdAt;
+    final String sender;
+    final String message;
+    final String target;
+    // Failed delivery attempts so far, persisted in the journal
+    int attempts;
+
+    // Delivery bookkeeping, only touched while holding the ForwardQueue lock
+    int segment;
+    // elapsedRealtime when enqueued in this process, 0 for forwards recovered from the journal
+    long queuedAt;
+    long nextAttemptAt;
+    boolean inFlight;
+    // Not journaled: forwards recovered after a restart are all drained as NORMAL
+    Priority priority = Priority.NORMAL;
+
+    ForwardRequest(long id, Channel channel, long createdAt, String sender, String message, String target) {
+        this.id = id;
+        this.channel = channel;
+        this.createdAt = createdAt;
+        this.sender = sender;
+        this.message = message;
+        this.target = target;
+    }
+
+    @Override
+    public String toString() {
+        return "ForwardRequest#" + id + "(" + channel + ")";
+    }
+}
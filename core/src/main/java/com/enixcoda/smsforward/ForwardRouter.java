@@ -0,0 +1,140 @@
+package com.enixcoda.smsforward;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides what a received message is forwarded as.
+ *
+ * Messages from a target number are reverse messages ("To +123:\n...",
+ * see {@link ReverseCommandParser}) and are sent on to the numbers they
+ * name; anything else from a target number is dropped to avoid forwarding
+ * loops. All other messages go to every target number, Telegram chat and
+ * Web endpoint that is configured, unless a {@link RoutingRules} rule
+ * matches them and picks the channels, the priority or dropping the
+ * message. Built once per configuration snapshot; the forwards are handed
+ * to a {@link Sink} supplied by the platform.
+ */
+public class ForwardRouter {
+    private static final String TAG = "ForwardRouter";
+
+    /**
+     * Receives the forwards of a message, e.g. to queue them
+     */
+    public interface Sink {
+        void forward(ForwardRequest.Channel channel, String sender, String message, String target, ForwardRequest.Priority priority);
+    }
+
+    private final List<String> smsTargets;
+    private final Set<String> targetNumberSet;
+    private final List<String> telegramTargets;
+    private final List<String> webTargets;
+    private final RoutingRules rules;
+
+    /**
+     * @param targetNumbers Normalized target numbers; reverse messages are accepted from these even with SMS forwarding off
+     * @param enableSMS Whether messages are forwarded to the target numbers
+     * @param telegramTargets Telegram chats to forward to, empty if Telegram is not ready
+     * @param webTargets Web endpoints to forward to, empty if Web is not ready
+     * @param rules Content routing rules, {@link RoutingRules#EMPTY} to forward everything everywhere
+     */
+    public ForwardRouter(List<String> targetNumbers, boolean enableSMS, List<String> telegramTargets, List<String> webTargets,
+                         RoutingRules rules) {
+        this.smsTargets = enableSMS ? targetNumbers : Collections.<String>emptyList();
+        this.targetNumberSet = new HashSet<>(targetNumbers);
+        this.telegramTargets = telegramTargets;
+        this.webTargets = webTargets;
+        this.rules = rules;
+    }
+
+    /**
+     * @param cleanedNumber A number already normalized with {@link PhoneNumberUtils#cleanPhoneNumber}
+     * @return true if it is one of the configured SMS target numbers
+     */
+    public boolean isTargetNumber(String cleanedNumber) {
+        return targetNumberSet.contains(cleanedNumber);
+    }
+
+    /**
+     * Hand everything a message should be forwarded as to the sink
+     * @param senderNumber Sender as received
+     * @param cleanedSender Sender normalized with {@link PhoneNumberUtils#cleanPhoneNumber}
+     * @param senderLabel Sender as shown in forwards, e.g. with the contact name
+     * @param body Message text
+     * @return Number of forwards handed to the sink
+     */
+    public int route(String senderNumber, String cleanedSender, String senderLabel, String body, Sink sink) {
+        // Check if sender is in the target numbers list (for reverse messaging)
+        if (isTargetNumber(cleanedSender)) {
+            // A message from a target number is never forwarded, to avoid loops; only its commands are sent
+            return routeReverse(senderNumber, cleanedSender, body, sink);
+        }
+
+        RoutingRules.Rule rule = rules.match(senderNumber, cleanedSender, body);
+        ForwardRequest.Priority priority = ForwardRequest.Priority.NORMAL;
+        if (rule != null) {
+            if (rule.drops()) {
+                CoreLog.d(TAG, "Message from " + senderNumber + " dropped by rule: " + rule.source);
+                return 0;
+            }
+            CoreLog.d(TAG, "Message from " + senderNumber + " routed by rule: " + rule.source);
+            priority = rule.priority;
+        }
+
+        int routed = 0;
+        if (rule == null || rule.forwardsTo(ForwardRequest.Channel.SMS)) {
+            for (String targetNumber : smsTargets) {
+                // Double-check to prevent forwarding to sender (targets are already normalized)
+                if (!cleanedSender.equals(targetNumber)) {
+                    CoreLog.d(TAG, "Forwarding SMS from " + senderNumber + " to " + targetNumber);
+                    sink.forward(ForwardRequest.Channel.SMS, senderLabel, body, targetNumber, priority);
+                    routed++;
+                } else {
+                    CoreLog.d(TAG, "Skipped forwarding to same number: " + targetNumber);
+                }
+            }
+        }
+        if (rule == null || rule.forwardsTo(ForwardRequest.Channel.TELEGRAM)) {
+            // One forward per chat, so each is journaled, rate limited and retried on its own
+            for (String chatId : telegramTargets) {
+                sink.forward(ForwardRequest.Channel.TELEGRAM, senderLabel, body, chatId, priority);
+                routed++;
+            }
+        }
+        if (rule == null || rule.forwardsTo(ForwardRequest.Channel.WEB)) {
+            // One forward per endpoint, each with its own retries and circuit breaker
+            for (String endpoint : webTargets) {
+                sink.forward(ForwardRequest.Channel.WEB, senderLabel, body, endpoint, priority);
+                routed++;
+            }
+        }
+        return routed;
+    }
+
+    /**
+     * Send the commands of a reverse message on to the numbers they name
+     * @return Number of replies handed to the sink
+     */
+    private int routeReverse(String senderNumber, String cleanedSender, String body, Sink sink) {
+        int routed = 0;
+        Set<String> sent = new HashSet<>();
+        for (ReverseCommandParser.Command command : ReverseCommandParser.parse(body)) {
+            // A number listed twice in one header gets the message once
+            sent.clear();
+            for (String destination : command.destinations) {
+                String cleanedDestination = PhoneNumberUtils.cleanPhoneNumber(destination);
+                // Prevent sending to the same number
+                if (cleanedDestination.equals(cleanedSender)) {
+                    CoreLog.d(TAG, "Prevented sending message to same number: " + senderNumber);
+                } else if (sent.add(cleanedDestination)) {
+                    CoreLog.d(TAG, "Sending reverse message from " + senderNumber + " to " + destination);
+                    sink.forward(ForwardRequest.Channel.SMS_REPLY, "", command.body, destination, ForwardRequest.Priority.NORMAL);
+                    routed++;
+                }
+            }
+        }
+        return routed;
+    }
+}
@@ -0,0 +1,131 @@
+package com.enixcoda.smsforward;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the style of HdrHistogram.
+ *
+ * Values are in microseconds. Each power of two is split into
+ * {@link #SUB_BUCKETS} linear buckets, so a reported percentile is at most
+ * 1/16 (6.25%) above the true value, from 1µs up to {@link #MAX_VALUE}
+ * (about 19 hours; larger values are clamped). Recording is one atomic
+ * increment plus two LongAdder updates and allocates nothing, so it is
+ * cheap enough for every message on every stage.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 36;
+    static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Point-in-time copy of a histogram
+     */
+    public static class Snapshot {
+        public final long count;
+        public final long meanMicros;
+        public final long maxMicros;
+        public final long p50Micros;
+        public final long p99Micros;
+        public final long p999Micros;
+
+        Snapshot(long count, long meanMicros, long maxMicros, long p50Micros, long p99Micros, long p999Micros) {
+            this.count = count;
+            this.meanMicros = meanMicros;
+            this.maxMicros = maxMicros;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.p999Micros = p999Micros;
+        }
+    }
+
+    public void record(long micros) {
+        long value = Math.min(Math.max(micros, 0), MAX_VALUE);
+        buckets.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sum.add(value);
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // Lost the race to a concurrent record, try again
+        }
+    }
+
+    /**
+     * Copy the buckets and compute the percentiles. Records made while
+     * copying may be only partly included.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        long maxMicros = max.get();
+        long recorded = count.sum();
+        long meanMicros = recorded > 0 ? sum.sum() / recorded : 0;
+        return new Snapshot(total, meanMicros, maxMicros,
+            percentile(counts, total, 0.50, maxMicros),
+            percentile(counts, total, 0.99, maxMicros),
+            percentile(counts, total, 0.999, maxMicros));
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    /**
+     * @return The upper bound of the bucket holding the given quantile, capped at the largest recorded value
+     */
+    private static long percentile(long[] counts, long total, double quantile, long maxMicros) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    /**
+     * Values below SUB_BUCKETS get a bucket each; above that, the top
+     * SUB_BUCKET_BITS bits after the leading one pick the linear bucket
+     * within the value's power of two.
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int mantissa = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + mantissa;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int mantissa = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + mantissa + 1) << shift) - 1;
+    }
+}
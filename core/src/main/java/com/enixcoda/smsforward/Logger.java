@@ -0,0 +1,27 @@
+package com.enixcoda.smsforward;
+
+/**
+ * Log output of the core module, implemented by the platform it runs on.
+ * Install one with {@link CoreLog#setLogger}.
+ */
+public interface Logger {
+    Logger NONE = new Logger() {
+        @Override
+        public void d(String tag, String message) {
+        }
+
+        @Override
+        public void w(String tag, String message) {
+        }
+
+        @Override
+        public void e(String tag, String message, Throwable error) {
+        }
+    };
+
+    void d(String tag, String message);
+
+    void w(String tag, String message);
+
+    void e(String tag, String message, Throwable error);
+}
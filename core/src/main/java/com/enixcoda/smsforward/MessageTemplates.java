@@ -0,0 +1,38 @@
+package com.enixcoda.smsforward;
+
+/**
+ * Text of the messages sent on the SMS channel.
+ */
+public class MessageTemplates {
+    /**
+     * Format the forward of a received message for a target number
+     * @param senderLabel Sender as shown in forwards, e.g. with the contact name
+     * @param content The received message
+     * @return "From sender:" followed by the sanitized content
+     */
+    public static String formatSmsForward(String senderLabel, String content) {
+        String forwardPrefix = String.format("From %s:\n", senderLabel);
+
+        // Sanitize the content to prevent issues with numbers at the start
+        String sanitizedContent = sanitizeMessageContent(content);
+        return forwardPrefix + sanitizedContent;
+    }
+
+    /**
+     * Ensures that the message content doesn't start with a number to prevent SMS delivery failures.
+     * Some carriers reject or fail to deliver SMS messages that start with digits.
+     */
+    static String sanitizeMessageContent(String content) {
+        if (content == null || content.isEmpty()) {
+            return content;
+        }
+
+        // Check if the message starts with a digit
+        if (Character.isDigit(content.charAt(0))) {
+            // Prepend text to prevent delivery issues
+            return "Msg: " + content;
+        }
+
+        return content;
+    }
+}
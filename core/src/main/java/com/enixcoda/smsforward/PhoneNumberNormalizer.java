@@ -0,0 +1,154 @@
+package com.enixcoda.smsforward;
+
+/**
+ * Single-pass, regex-free phone number normalization.
+ *
+ * Applies exactly the rules of the original regex based
+ * {@code PhoneNumberUtils.cleanPhoneNumber}:
+ * - drop every character except ASCII digits and '+'
+ * - if the result starts with '+', keep it as is
+ * - else if it starts with "00", replace those with '+'
+ * - else if it has more than 10 characters, prefix '+'
+ *
+ * This class has no Android dependencies so it can be benchmarked on a plain JVM.
+ */
+public final class PhoneNumberNormalizer {
+    /** Returned by {@link #packedKey} when a number cannot be packed into a long */
+    public static final long NO_KEY = -1L;
+
+    static final int MAX_PACKED_DIGITS = 17;
+    private static final int LOCAL_NUMBER_MAX_LENGTH = 10;
+    private static final long PLUS_FLAG = 1L << 57;
+    private static final int LENGTH_SHIFT = 58;
+
+    private PhoneNumberNormalizer() {
+    }
+
+    /**
+     * Normalize a number, returning the input itself when it is already normalized
+     * @param raw Raw phone number, may be null
+     * @return Normalized number, "" for null or empty input
+     */
+    public static String clean(String raw) {
+        if (raw == null) {
+            return "";
+        }
+        int length = raw.length();
+        if (length == 0) {
+            return "";
+        }
+
+        boolean filtered = true;
+        for (int i = 0; i < length; i++) {
+            if (!isKept(raw.charAt(i))) {
+                filtered = false;
+                break;
+            }
+        }
+
+        if (filtered) {
+            // Common case: nothing to strip, so only the prefix rules apply
+            if (raw.charAt(0) == '+') {
+                return raw;
+            } else if (length >= 2 && raw.charAt(0) == '0' && raw.charAt(1) == '0') {
+                return "+" + raw.substring(2);
+            } else if (length > LOCAL_NUMBER_MAX_LENGTH) {
+                return "+" + raw;
+            }
+            return raw;
+        }
+
+        char[] buffer = new char[length + 1];
+        int normalizedLength = normalize(raw, buffer);
+        return new String(buffer, 0, normalizedLength);
+    }
+
+    /**
+     * Normalize a number into a caller-owned buffer without allocating
+     * @param raw Raw phone number
+     * @param out Destination, at least raw.length() + 1 chars long
+     * @return Number of chars written to out, starting at index 0
+     */
+    public static int normalize(CharSequence raw, char[] out) {
+        // Filter into out[1..] so there is room to prepend '+' without shifting
+        int length = 0;
+        for (int i = 0, n = raw.length(); i < n; i++) {
+            char c = raw.charAt(i);
+            if (isKept(c)) {
+                out[1 + length++] = c;
+            }
+        }
+        if (length == 0) {
+            return 0;
+        }
+
+        if (out[1] == '+') {
+            System.arraycopy(out, 1, out, 0, length);
+            return length;
+        } else if (length >= 2 && out[1] == '0' && out[2] == '0') {
+            out[2] = '+';
+            System.arraycopy(out, 2, out, 0, length - 1);
+            return length - 1;
+        } else if (length > LOCAL_NUMBER_MAX_LENGTH) {
+            out[0] = '+';
+            return length + 1;
+        }
+        System.arraycopy(out, 1, out, 0, length);
+        return length;
+    }
+
+    /**
+     * Pack the normalized form of a number into a long, for allocation-free
+     * hashing and comparison. Two numbers have the same key exactly when
+     * {@link #clean} returns equal strings for them.
+     *
+     * Layout: bits 58-62 digit count, bit 57 leading '+', bits 0-56 the digits as a decimal value.
+     *
+     * @param raw Raw phone number
+     * @return The packed key, or {@link #NO_KEY} if the number has more than
+     *         {@link #MAX_PACKED_DIGITS} digits or a '+' after the first character
+     */
+    public static long packedKey(CharSequence raw) {
+        boolean plus = false;
+        int filteredLength = 0;
+        int digits = 0;
+        int leadingZeros = 0;
+        long value = 0;
+
+        for (int i = 0, n = raw.length(); i < n; i++) {
+            char c = raw.charAt(i);
+            if (c == '+') {
+                if (filteredLength != 0) {
+                    return NO_KEY;
+                }
+                plus = true;
+                filteredLength++;
+            } else if (c >= '0' && c <= '9') {
+                if (digits == MAX_PACKED_DIGITS) {
+                    return NO_KEY;
+                }
+                if (digits == leadingZeros && c == '0') {
+                    leadingZeros++;
+                }
+                value = value * 10 + (c - '0');
+                digits++;
+                filteredLength++;
+            }
+        }
+
+        if (!plus) {
+            if (leadingZeros >= 2) {
+                // "00" international prefix becomes '+'; the zeros add nothing to the value
+                plus = true;
+                digits -= 2;
+            } else if (filteredLength > LOCAL_NUMBER_MAX_LENGTH) {
+                plus = true;
+            }
+        }
+        return ((long) digits << LENGTH_SHIFT) | (plus ? PLUS_FLAG : 0) | value;
+    }
+
+    private static boolean isKept(char c) {
+        return (c >= '0' && c <= '9') || c == '+';
+    }
+}
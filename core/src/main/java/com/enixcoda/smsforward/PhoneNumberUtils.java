@@ -1,8 +1,5 @@
 package com.enixcoda.smsforward;
 
-import android.text.TextUtils;
-import android.util.Log;
-
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -18,7 +15,7 @@ public class PhoneNumberUtils {
     public static List<String> parsePhoneNumbers(String phoneNumbersString) {
         List<String> phoneNumbers = new ArrayList<>();
         
-        if (TextUtils.isEmpty(phoneNumbersString)) {
+        if (isEmpty(phoneNumbersString)) {
             return phoneNumbers;
         }
         
@@ -31,33 +28,48 @@ public class PhoneNumberUtils {
             }
         }
         
-        Log.d(TAG, "Parsed " + phoneNumbers.size() + " phone numbers: " + phoneNumbers);
+        CoreLog.d(TAG, "Parsed " + phoneNumbers.size() + " phone numbers");
         return phoneNumbers;
     }
 
     /**
-     * Clean and normalize a phone number
+     * Parse a comma-separated blocklist. Like {@link #parsePhoneNumbers}, but an entry
+     * ending in '*' is kept as a wildcard prefix, e.g. "+1 900*" becomes "+1900*".
+     * @param blockedNumbersString Comma-separated numbers and prefixes
+     * @return List of cleaned numbers and prefixes
+     */
+    public static List<String> parseBlocklistEntries(String blockedNumbersString) {
+        List<String> entries = new ArrayList<>();
+        
+        if (isEmpty(blockedNumbersString)) {
+            return entries;
+        }
+        
+        for (String entry : blockedNumbersString.split(",")) {
+            String trimmed = entry.trim();
+            boolean wildcard = trimmed.endsWith(String.valueOf(BlocklistIndex.WILDCARD));
+            String cleaned = cleanPhoneNumber(wildcard ? trimmed.substring(0, trimmed.length() - 1) : trimmed);
+            if (!cleaned.isEmpty()) {
+                entries.add(wildcard ? cleaned + BlocklistIndex.WILDCARD : cleaned);
+            }
+        }
+        
+        CoreLog.d(TAG, "Parsed " + entries.size() + " blocklist entries");
+        return entries;
+    }
+
+    /**
+     * Clean and normalize a phone number.
+     * See {@link PhoneNumberNormalizer} for the rules and allocation-free variants.
      * @param phoneNumber Raw phone number
      * @return Cleaned phone number
      */
     public static String cleanPhoneNumber(String phoneNumber) {
-        if (TextUtils.isEmpty(phoneNumber)) {
+        if (isEmpty(phoneNumber)) {
             return "";
         }
-        
-        // Remove all non-digit characters except +
-        String cleaned = phoneNumber.replaceAll("[^\\d+]", "");
-        
-        // Remove leading zeros and normalize
-        if (cleaned.startsWith("+")) {
-            return cleaned;
-        } else if (cleaned.startsWith("00")) {
-            return "+" + cleaned.substring(2);
-        } else if (cleaned.length() > 10) {
-            return "+" + cleaned;
-        } else {
-            return cleaned;
-        }
+
+        return PhoneNumberNormalizer.clean(phoneNumber);
     }
 
     /**
@@ -67,7 +79,7 @@ public class PhoneNumberUtils {
      * @return true if sender number matches any target number
      */
     public static boolean isSenderInTargetList(String senderNumber, List<String> targetNumbers) {
-        if (TextUtils.isEmpty(senderNumber) || targetNumbers.isEmpty()) {
+        if (isEmpty(senderNumber) || targetNumbers.isEmpty()) {
             return false;
         }
         
@@ -76,7 +88,7 @@ public class PhoneNumberUtils {
         for (String targetNumber : targetNumbers) {
             String cleanedTarget = cleanPhoneNumber(targetNumber);
             if (cleanedSender.equals(cleanedTarget)) {
-                Log.d(TAG, "Sender " + senderNumber + " matches target " + targetNumber);
+                CoreLog.d(TAG, "Sender " + senderNumber + " matches target " + targetNumber);
                 return true;
             }
         }
@@ -117,12 +129,12 @@ public class PhoneNumberUtils {
      * @return true if sender number is blocked
      */
     public static boolean isSenderBlocked(String senderNumber, List<String> blockedNumbers) {
-        if (TextUtils.isEmpty(senderNumber) || blockedNumbers == null || blockedNumbers.isEmpty()) {
+        if (isEmpty(senderNumber) || blockedNumbers == null || blockedNumbers.isEmpty()) {
             return false;
         }
         
         String cleanedSender = cleanPhoneNumber(senderNumber);
-        if (TextUtils.isEmpty(cleanedSender)) {
+        if (isEmpty(cleanedSender)) {
             return false;
         }
         
@@ -130,13 +142,13 @@ public class PhoneNumberUtils {
             String cleanedBlocked = cleanPhoneNumber(blockedNumber);
             
             // Skip empty blocked numbers
-            if (TextUtils.isEmpty(cleanedBlocked)) {
+            if (isEmpty(cleanedBlocked)) {
                 continue;
             }
             
             // Exact match
             if (cleanedSender.equals(cleanedBlocked)) {
-                Log.d(TAG, "Sender " + senderNumber + " is blocked (exact match with " + blockedNumber + ")");
+                CoreLog.d(TAG, "Sender " + senderNumber + " is blocked (exact match with " + blockedNumber + ")");
                 return true;
             }
             
@@ -144,7 +156,7 @@ public class PhoneNumberUtils {
             // Only do partial matching if both numbers are at least 7 digits (minimum valid phone number)
             if (cleanedBlocked.length() >= 7 && cleanedSender.length() >= 7) {
                 if (cleanedSender.endsWith(cleanedBlocked) || cleanedBlocked.endsWith(cleanedSender)) {
-                    Log.d(TAG, "Sender " + senderNumber + " is blocked (partial match with " + blockedNumber + ")");
+                    CoreLog.d(TAG, "Sender " + senderNumber + " is blocked (partial match with " + blockedNumber + ")");
                     return true;
                 }
             }
@@ -152,4 +164,8 @@ public class PhoneNumberUtils {
         
         return false;
     }
+
+    private static boolean isEmpty(CharSequence value) {
+        return value == null || value.length() == 0;
+    }
 }
@@ -0,0 +1,102 @@
+package com.enixcoda.smsforward;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Retry schedule shared by the delivery channels.
+ *
+ * Uses exponential backoff with full jitter: the n-th retry waits a random
+ * time between 0 and min(maxDelay, baseDelay * 2^(n-1)). A delay requested
+ * by the server (Telegram's retry_after or an HTTP Retry-After header) takes
+ * precedence. After maxAttempts the forward is given up on and moved to the
+ * {@link DeadLetterStore}.
+ */
+public class RetryPolicy {
+    static final int DEFAULT_MAX_ATTEMPTS = 8;
+    static final long DEFAULT_BASE_DELAY_MS = 2 * 1000;
+    static final long DEFAULT_MAX_DELAY_MS = 15 * 60 * 1000;
+
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final Random random = new Random();
+
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS);
+    }
+
+    public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * @param attempts Number of attempts made so far, including the one that just failed
+     * @param error Why the last attempt failed
+     * @return true if the forward should be attempted again
+     */
+    public boolean shouldRetry(int attempts, IOException error) {
+        if (error instanceof DeliveryException && ((DeliveryException) error).permanent) {
+            return false;
+        }
+        return attempts < maxAttempts;
+    }
+
+    /**
+     * @param attempts Number of attempts made so far, including the one that just failed
+     * @param error Why the last attempt failed
+     * @return Milliseconds to wait before the next attempt
+     */
+    public long nextDelayMillis(int attempts, IOException error) {
+        if (error instanceof DeliveryException) {
+            long retryAfter = ((DeliveryException) error).retryAfterMillis;
+            if (retryAfter > 0) {
+                return Math.min(retryAfter, maxDelayMs);
+            }
+        }
+
+        int exponent = Math.min(Math.max(attempts - 1, 0), 30);
+        long ceiling = Math.min(maxDelayMs, baseDelayMs << exponent);
+        synchronized (random) {
+            return (long) (random.nextDouble() * ceiling);
+        }
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Parse an HTTP Retry-After header, which is either delay-seconds or an HTTP-date
+     * @return Delay in milliseconds, or {@link DeliveryException#NO_RETRY_AFTER} if absent or invalid
+     */
+    public static long parseRetryAfterHeader(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return DeliveryException.NO_RETRY_AFTER;
+        }
+        value = value.trim();
+
+        try {
+            long seconds = Long.parseLong(value);
+            return seconds >= 0 ? seconds * 1000 : DeliveryException.NO_RETRY_AFTER;
+        } catch (NumberFormatException e) {
+            // Not delay-seconds, try HTTP-date
+        }
+
+        SimpleDateFormat httpDate = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        httpDate.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = httpDate.parse(value);
+            return Math.max(0, date.getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return DeliveryException.NO_RETRY_AFTER;
+        }
+    }
+}
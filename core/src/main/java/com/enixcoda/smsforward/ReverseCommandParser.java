@@ -0,0 +1,121 @@
+package com.enixcoda.smsforward;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parses reverse messages sent by a target number:
+ *
+ * <pre>
+ * To +15551234567:
+ * Message text, any number of lines
+ * </pre>
+ *
+ * A header may name several destinations ("To +1555..., +44...:"), and
+ * one SMS may carry a batch of commands: every line that is itself a
+ * valid header starts the next command. The message is scanned once,
+ * left to right, with no regex and no backtracking, so the cost is linear
+ * in its length however long the body is.
+ */
+public class ReverseCommandParser {
+    private static final String HEADER_PREFIX = "To ";
+
+    /**
+     * One command: a message body and the numbers to send it to
+     */
+    public static class Command {
+        public final List<String> destinations;
+        public final String body;
+
+        Command(List<String> destinations, String body) {
+            this.destinations = destinations;
+            this.body = body;
+        }
+    }
+
+    /**
+     * @param message Text of a message from a target number
+     * @return The commands in order, or an empty list if the message does not start with a valid header
+     */
+    public static List<Command> parse(String message) {
+        List<String> destinations = new ArrayList<>(1);
+        int bodyStart = parseHeader(message, 0, destinations);
+        if (bodyStart < 0) {
+            return Collections.emptyList();
+        }
+
+        List<Command> commands = new ArrayList<>(1);
+        List<String> nextDestinations = new ArrayList<>(1);
+        int lineStart = bodyStart;
+        while (true) {
+            int newline = message.indexOf('\n', lineStart);
+            if (newline < 0) {
+                commands.add(new Command(destinations, message.substring(bodyStart)));
+                return commands;
+            }
+            int nextBodyStart = parseHeader(message, newline + 1, nextDestinations);
+            if (nextBodyStart >= 0) {
+                // The line break before a header separates the commands and belongs to neither body
+                commands.add(new Command(destinations, message.substring(bodyStart, newline)));
+                destinations = nextDestinations;
+                nextDestinations = new ArrayList<>(1);
+                bodyStart = nextBodyStart;
+                lineStart = nextBodyStart;
+            } else {
+                lineStart = newline + 1;
+            }
+        }
+    }
+
+    /**
+     * Match "To number[, number...]:" followed by a line break at the given position
+     * @param destinations Receives the numbers as written, without spaces
+     * @return Index just past the line break, or -1 if there is no header at start
+     */
+    static int parseHeader(String message, int start, List<String> destinations) {
+        if (!message.startsWith(HEADER_PREFIX, start)) {
+            return -1;
+        }
+        int length = message.length();
+        int i = start + HEADER_PREFIX.length();
+        while (true) {
+            int numberStart = i;
+            if (i < length && message.charAt(i) == '+') {
+                i++;
+            }
+            int digitsStart = i;
+            while (i < length && isDigit(message.charAt(i))) {
+                i++;
+            }
+            if (i == digitsStart) {
+                destinations.clear();
+                return -1;
+            }
+            destinations.add(message.substring(numberStart, i));
+
+            if (i < length && message.charAt(i) == ',') {
+                i++;
+                while (i < length && message.charAt(i) == ' ') {
+                    i++;
+                }
+                continue;
+            }
+            if (i < length && message.charAt(i) == ':') {
+                i++;
+                if (i < length && message.charAt(i) == '\r') {
+                    i++;
+                }
+                if (i < length && message.charAt(i) == '\n') {
+                    return i + 1;
+                }
+            }
+            destinations.clear();
+            return -1;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,291 @@
+package com.enixcoda.smsforward;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Content routing rules, one per line, of the form "condition -> actions":
+ *
+ * <pre>
+ * body contains OTP, verification code -> telegram priority high
+ * sender in +15551234567, BANKXYZ -> web, sms
+ * body matches /\bsale\b|\d+% off/i -> drop
+ * sender matches /^\+1800/ -> telegram
+ * any -> sms
+ * </pre>
+ *
+ * Actions are any of sms, telegram and web, or drop, plus an optional
+ * "priority high". The first rule that matches decides where a message
+ * goes; a message no rule matches goes to every configured channel.
+ * Blank lines and lines starting with # are ignored.
+ *
+ * Rules are compiled once per configuration snapshot: all keywords into a
+ * single {@link AhoCorasick} automaton and all sender lists into one hash
+ * map, each keyed to the earliest rule they belong to, so matching costs
+ * one scan of the body plus one lookup however many keyword and sender
+ * rules there are. Regexes are precompiled and only tried while they come
+ * before the best match found so far.
+ */
+public class RoutingRules {
+    private static final String TAG = "RoutingRules";
+    private static final String ARROW = "->";
+
+    public static final RoutingRules EMPTY = new RoutingRules(Collections.<Rule>emptyList(), Collections.<String>emptyList(),
+        new AhoCorasick(Collections.<String>emptyList(), new int[0]), Collections.<String, Integer>emptyMap(),
+        Collections.<RegexCondition>emptyList(), AhoCorasick.NO_MATCH);
+
+    /**
+     * What to do with a message a rule matches
+     */
+    public static class Rule {
+        // Line the rule was parsed from, for logs
+        public final String source;
+        // Channels to forward to, empty to drop the message
+        public final Set<ForwardRequest.Channel> channels;
+        public final ForwardRequest.Priority priority;
+
+        Rule(String source, Set<ForwardRequest.Channel> channels, ForwardRequest.Priority priority) {
+            this.source = source;
+            this.channels = channels;
+            this.priority = priority;
+        }
+
+        public boolean drops() {
+            return channels.isEmpty();
+        }
+
+        public boolean forwardsTo(ForwardRequest.Channel channel) {
+            return channels.contains(channel);
+        }
+    }
+
+    private static class RegexCondition {
+        final int rule;
+        final boolean onBody;
+        final Pattern pattern;
+
+        RegexCondition(int rule, boolean onBody, Pattern pattern) {
+            this.rule = rule;
+            this.onBody = onBody;
+            this.pattern = pattern;
+        }
+    }
+
+    private final List<Rule> rules;
+    // Lines that could not be parsed, as "line N: reason"
+    public final List<String> errors;
+    // Keywords of all "body contains" rules, valued with their rule index
+    private final AhoCorasick bodyKeywords;
+    // Sender key -> index of the first "sender in" rule listing it
+    private final Map<String, Integer> senders;
+    // In rule order
+    private final List<RegexCondition> regexes;
+    private final int firstCatchAll;
+
+    private RoutingRules(List<Rule> rules, List<String> errors, AhoCorasick bodyKeywords, Map<String, Integer> senders,
+                         List<RegexCondition> regexes, int firstCatchAll) {
+        this.rules = rules;
+        this.errors = errors;
+        this.bodyKeywords = bodyKeywords;
+        this.senders = senders;
+        this.regexes = regexes;
+        this.firstCatchAll = firstCatchAll;
+    }
+
+    /**
+     * Parse the rules preference. Invalid lines are logged, listed in {@link #errors} and skipped.
+     */
+    public static RoutingRules parse(String text) {
+        if (text == null || text.trim().isEmpty()) {
+            return EMPTY;
+        }
+        List<Rule> rules = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        List<String> keywords = new ArrayList<>();
+        List<Integer> keywordRules = new ArrayList<>();
+        Map<String, Integer> senders = new HashMap<>();
+        List<RegexCondition> regexes = new ArrayList<>();
+        int firstCatchAll = AhoCorasick.NO_MATCH;
+
+        String[] lines = text.split("\r?\n");
+        for (int lineNumber = 1; lineNumber <= lines.length; lineNumber++) {
+            String line = lines[lineNumber - 1].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                int arrow = line.lastIndexOf(ARROW);
+                if (arrow < 0) {
+                    throw new IllegalArgumentException("missing " + ARROW);
+                }
+                String condition = line.substring(0, arrow).trim();
+                Rule rule = parseActions(line, line.substring(arrow + ARROW.length()));
+                int index = rules.size();
+
+                String lowerCondition = condition.toLowerCase(Locale.ROOT);
+                if (lowerCondition.equals("any") || lowerCondition.equals("*")) {
+                    firstCatchAll = Math.min(firstCatchAll, index);
+                } else if (lowerCondition.startsWith("body contains ")) {
+                    for (String word : splitList(condition.substring("body contains ".length()))) {
+                        keywords.add(word);
+                        keywordRules.add(index);
+                    }
+                } else if (lowerCondition.startsWith("sender in ")) {
+                    for (String sender : splitList(condition.substring("sender in ".length()))) {
+                        String key = senderKey(sender, PhoneNumberUtils.cleanPhoneNumber(sender));
+                        if (!senders.containsKey(key)) {
+                            senders.put(key, index);
+                        }
+                    }
+                } else if (lowerCondition.startsWith("body matches ")) {
+                    regexes.add(new RegexCondition(index, true, parseRegex(condition.substring("body matches ".length()))));
+                } else if (lowerCondition.startsWith("sender matches ")) {
+                    regexes.add(new RegexCondition(index, false, parseRegex(condition.substring("sender matches ".length()))));
+                } else {
+                    throw new IllegalArgumentException("unknown condition \"" + condition + "\"");
+                }
+                rules.add(rule);
+            } catch (PatternSyntaxException e) {
+                errors.add(ignore(lineNumber, "invalid regex, " + e.getDescription()));
+            } catch (IllegalArgumentException e) {
+                errors.add(ignore(lineNumber, e.getMessage()));
+            }
+        }
+
+        int[] values = new int[keywordRules.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = keywordRules.get(i);
+        }
+        AhoCorasick bodyKeywords = new AhoCorasick(keywords, values);
+        CoreLog.d(TAG, "Compiled " + rules.size() + " routing rules, " + keywords.size() + " keywords into "
+            + bodyKeywords.size() + " states");
+        return new RoutingRules(Collections.unmodifiableList(rules), Collections.unmodifiableList(errors),
+            bodyKeywords, senders, regexes, firstCatchAll);
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * @param senderNumber Sender as received
+     * @param cleanedSender Sender normalized with {@link PhoneNumberUtils#cleanPhoneNumber}
+     * @param body Message text
+     * @return The first rule matching the message, or null if none does
+     */
+    public Rule match(String senderNumber, String cleanedSender, String body) {
+        if (rules.isEmpty()) {
+            return null;
+        }
+        int best = firstCatchAll;
+        Integer senderRule = senders.get(senderKey(senderNumber, cleanedSender));
+        if (senderRule != null && senderRule < best) {
+            best = senderRule;
+        }
+        best = Math.min(best, bodyKeywords.firstMatch(body));
+        for (RegexCondition regex : regexes) {
+            if (regex.rule >= best) {
+                break;
+            }
+            if (regex.pattern.matcher(regex.onBody ? body : senderNumber).find()) {
+                best = regex.rule;
+                break;
+            }
+        }
+        return best == AhoCorasick.NO_MATCH ? null : rules.get(best);
+    }
+
+    private static String ignore(int lineNumber, String reason) {
+        String error = "line " + lineNumber + ": " + reason;
+        CoreLog.w(TAG, "Ignoring routing rule, " + error);
+        return error;
+    }
+
+    /**
+     * Numbers match in normalized form, alphanumeric sender IDs such as "BANKXYZ" ignoring case
+     */
+    private static String senderKey(String sender, String cleanedSender) {
+        return cleanedSender.isEmpty() ? sender.trim().toLowerCase(Locale.ROOT) : cleanedSender;
+    }
+
+    private static Rule parseActions(String source, String actions) {
+        Set<ForwardRequest.Channel> channels = EnumSet.noneOf(ForwardRequest.Channel.class);
+        ForwardRequest.Priority priority = ForwardRequest.Priority.NORMAL;
+        boolean drop = false;
+        String[] tokens = actions.trim().toLowerCase(Locale.ROOT).split("[\\s,]+");
+        for (int i = 0; i < tokens.length; i++) {
+            switch (tokens[i]) {
+                case "sms":
+                    channels.add(ForwardRequest.Channel.SMS);
+                    break;
+                case "telegram":
+                    channels.add(ForwardRequest.Channel.TELEGRAM);
+                    break;
+                case "web":
+                    channels.add(ForwardRequest.Channel.WEB);
+                    break;
+                case "drop":
+                    drop = true;
+                    break;
+                case "priority":
+                    if (i + 1 < tokens.length && tokens[i + 1].equals("high")) {
+                        priority = ForwardRequest.Priority.HIGH;
+                    } else if (i + 1 < tokens.length && tokens[i + 1].equals("normal")) {
+                        priority = ForwardRequest.Priority.NORMAL;
+                    } else {
+                        throw new IllegalArgumentException("priority must be high or normal");
+                    }
+                    i++;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown action \"" + tokens[i] + "\"");
+            }
+        }
+        if (drop && !channels.isEmpty()) {
+            throw new IllegalArgumentException("drop cannot be combined with channels");
+        }
+        if (!drop && channels.isEmpty()) {
+            throw new IllegalArgumentException("no channel given");
+        }
+        return new Rule(source, Collections.unmodifiableSet(channels), priority);
+    }
+
+    /**
+     * @param regex "/pattern/", or "/pattern/i" to ignore case
+     */
+    private static Pattern parseRegex(String regex) throws PatternSyntaxException {
+        String trimmed = regex.trim();
+        boolean ignoreCase = trimmed.endsWith("/i");
+        int end = trimmed.length() - (ignoreCase ? 2 : 1);
+        if (trimmed.length() < 2 || trimmed.charAt(0) != '/' || end < 1 || trimmed.charAt(end) != '/') {
+            throw new IllegalArgumentException("regex must be written as /pattern/ or /pattern/i");
+        }
+        return Pattern.compile(trimmed.substring(1, end), ignoreCase ? Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE : 0);
+    }
+
+    private static List<String> splitList(String list) {
+        List<String> items = new ArrayList<>();
+        for (String item : list.split(",")) {
+            String trimmed = item.trim();
+            if (!trimmed.isEmpty()) {
+                items.add(trimmed);
+            }
+        }
+        if (items.isEmpty()) {
+            throw new IllegalArgumentException("empty list");
+        }
+        return items;
+    }
+}
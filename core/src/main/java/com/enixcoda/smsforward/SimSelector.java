@@ -0,0 +1,168 @@
+package com.enixcoda.smsforward;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chooses which SIM sends each outbound SMS on multi-SIM devices.
+ *
+ * The selection policy only decides the order in which SIMs are tried.
+ * SIMs that recently failed to send (no service, radio off, carrier limit)
+ * are moved behind the healthy ones for {@link #FAILOVER_COOLDOWN_MS}, so
+ * traffic fails over to the other SIM automatically and comes back once the
+ * cooldown has passed.
+ */
+public class SimSelector {
+    private static final String TAG = "SimSelector";
+
+    static final long FAILOVER_COOLDOWN_MS = 5 * 60 * 1000;
+
+    public enum Policy {
+        // The SMS SIM chosen in system settings
+        DEFAULT(false),
+        // Each target always gets the same SIM, from the pin list or by hashing its number
+        PINNED(false),
+        ROUND_ROBIN(true),
+        // The SIM with the most unused rate limit capacity
+        LEAST_LOADED(true);
+
+        // Whether a throttled SIM may hand its message to another SIM
+        final boolean balances;
+
+        Policy(boolean balances) {
+            this.balances = balances;
+        }
+
+        static Policy fromPreference(String value) {
+            if ("pinned".equals(value)) {
+                return PINNED;
+            } else if ("round_robin".equals(value)) {
+                return ROUND_ROBIN;
+            } else if ("least_loaded".equals(value)) {
+                return LEAST_LOADED;
+            }
+            return DEFAULT;
+        }
+    }
+
+    /**
+     * An active SIM: its subscription id and 0-based slot
+     */
+    static class Sim {
+        final int subscriptionId;
+        final int slotIndex;
+
+        Sim(int subscriptionId, int slotIndex) {
+            this.subscriptionId = subscriptionId;
+            this.slotIndex = slotIndex;
+        }
+    }
+
+    private final Map<Integer, Long> failedUntil = new HashMap<>();
+    private int nextRoundRobin;
+
+    /**
+     * Order the active SIMs for sending one message
+     * @param sims Active SIMs in slot order, at least one
+     * @param defaultSubscriptionId The system's default SMS subscription
+     * @param destination Normalized destination number
+     * @param pins Normalized number to 0-based SIM slot, used by {@link Policy#PINNED}
+     * @param rateLimiter Source of the load per SIM for {@link Policy#LEAST_LOADED}
+     * @return Subscription ids to try, most preferred first
+     */
+    public synchronized List<Integer> candidates(List<Sim> sims, int defaultSubscriptionId, Policy policy,
+                                                 String destination, Map<String, Integer> pins,
+                                                 SmsRateLimiter rateLimiter, long now) {
+        List<Sim> ordered = new ArrayList<>(sims);
+        switch (policy) {
+            case PINNED:
+                Integer slot = pins.get(destination);
+                int preferred = slot != null ? indexOfSlot(sims, slot) : -1;
+                if (preferred < 0) {
+                    preferred = Math.floorMod(destination.hashCode(), sims.size());
+                }
+                Collections.rotate(ordered, -preferred);
+                break;
+            case ROUND_ROBIN:
+                Collections.rotate(ordered, -(nextRoundRobin++ % sims.size()));
+                break;
+            case LEAST_LOADED:
+                Collections.sort(ordered, (a, b) -> Double.compare(
+                    rateLimiter.availableTokens(b.subscriptionId, now),
+                    rateLimiter.availableTokens(a.subscriptionId, now)));
+                break;
+            default:
+                for (int i = 0; i < ordered.size(); i++) {
+                    if (ordered.get(i).subscriptionId == defaultSubscriptionId) {
+                        ordered.add(0, ordered.remove(i));
+                        break;
+                    }
+                }
+                break;
+        }
+
+        // Stable partition: healthy SIMs keep their order and go first
+        List<Integer> healthy = new ArrayList<>(ordered.size());
+        List<Integer> failing = new ArrayList<>();
+        for (Sim sim : ordered) {
+            Long until = failedUntil.get(sim.subscriptionId);
+            if (until != null && until > now) {
+                failing.add(sim.subscriptionId);
+            } else {
+                healthy.add(sim.subscriptionId);
+            }
+        }
+        healthy.addAll(failing);
+        return healthy;
+    }
+
+    public synchronized void onSendFailed(int subscriptionId, long now) {
+        CoreLog.w(TAG, "SIM subscription " + subscriptionId + " failed to send, preferring other SIMs for "
+            + (FAILOVER_COOLDOWN_MS / 1000) + "s");
+        failedUntil.put(subscriptionId, now + FAILOVER_COOLDOWN_MS);
+    }
+
+    public synchronized void onSendSucceeded(int subscriptionId) {
+        failedUntil.remove(subscriptionId);
+    }
+
+    /**
+     * Parse the SIM pin list, e.g. "+86 10000:1, +1 5551234567:2"
+     * @return Normalized number to 0-based SIM slot
+     */
+    static Map<String, Integer> parsePins(String pinsString) {
+        Map<String, Integer> pins = new HashMap<>();
+        if (pinsString == null || pinsString.trim().isEmpty()) {
+            return pins;
+        }
+        for (String entry : pinsString.split(",")) {
+            int separator = entry.lastIndexOf(':');
+            if (separator < 0) {
+                CoreLog.w(TAG, "Ignoring SIM pin without slot: " + entry.trim());
+                continue;
+            }
+            String number = PhoneNumberUtils.cleanPhoneNumber(entry.substring(0, separator).trim());
+            try {
+                int slot = Integer.parseInt(entry.substring(separator + 1).trim());
+                if (!number.isEmpty() && slot >= 1) {
+                    pins.put(number, slot - 1);
+                }
+            } catch (NumberFormatException e) {
+                CoreLog.w(TAG, "Ignoring SIM pin with invalid slot: " + entry.trim());
+            }
+        }
+        return pins;
+    }
+
+    private static int indexOfSlot(List<Sim> sims, int slotIndex) {
+        for (int i = 0; i < sims.size(); i++) {
+            if (sims.get(i).slotIndex == slotIndex) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
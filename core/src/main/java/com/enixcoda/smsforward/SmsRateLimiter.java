@@ -0,0 +1,155 @@
+package com.enixcoda.smsforward;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Token buckets for outbound SMS: one per SIM and one per destination number.
+ *
+ * A send needs a token from both buckets, so a fan-out to many targets is
+ * spread out instead of hitting the radio all at once, and no single
+ * destination receives a burst. The per-SIM rate adapts to what the
+ * carrier accepts (AIMD): every accepted send raises it a little, and every
+ * RESULT_ERROR_LIMIT_EXCEEDED or failed delivery report halves it.
+ *
+ * Rates are in messages per minute. Callers pass elapsedRealtime() as now.
+ */
+public class SmsRateLimiter {
+    // Android asks the user to confirm once an app sends 30 SMS in 30 minutes,
+    // so start at a moderate rate and let acceptance raise it
+    static final double INITIAL_SIM_RATE_PER_MINUTE = 20;
+    static final double MIN_SIM_RATE_PER_MINUTE = 1;
+    static final double MAX_SIM_RATE_PER_MINUTE = 60;
+    static final double SIM_BURST = 10;
+    static final double ADDITIVE_INCREASE_PER_MINUTE = 1;
+    static final double MULTIPLICATIVE_DECREASE = 0.5;
+
+    static final double DESTINATION_RATE_PER_MINUTE = 6;
+    static final double DESTINATION_BURST = 3;
+    private static final int MAX_TRACKED_DESTINATIONS = 128;
+
+    static class TokenBucket {
+        final double capacity;
+        double ratePerMinute;
+        double tokens;
+        long lastRefillAt;
+
+        TokenBucket(double capacity, double ratePerMinute, long now) {
+            this.capacity = capacity;
+            this.ratePerMinute = ratePerMinute;
+            this.tokens = capacity;
+            this.lastRefillAt = now;
+        }
+
+        void refill(long now) {
+            if (now > lastRefillAt) {
+                tokens = Math.min(capacity, tokens + (now - lastRefillAt) * ratePerMinute / 60000.0);
+                lastRefillAt = now;
+            }
+        }
+
+        /**
+         * @return Milliseconds until the given number of tokens is available, 0 if they are available now
+         */
+        long waitMillis(double needed, long now) {
+            refill(now);
+            if (tokens >= needed) {
+                return 0;
+            }
+            return (long) Math.ceil((needed - tokens) * 60000.0 / ratePerMinute);
+        }
+    }
+
+    private final Map<Integer, TokenBucket> simBuckets = new HashMap<>();
+    private final LinkedHashMap<String, TokenBucket> destinationBuckets = new LinkedHashMap<String, TokenBucket>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+            // A bucket idle long enough to be evicted is full again anyway
+            return size() > MAX_TRACKED_DESTINATIONS;
+        }
+    };
+
+    /**
+     * Take tokens from both the SIM's and the destination's bucket, or from neither
+     * @param subscriptionId SIM the message will be sent from
+     * @param destination Normalized destination number
+     * @param parts Number of SMS the message is split into; each one counts against the limits
+     * @return 0 if the message may be sent now, otherwise milliseconds to wait before trying again
+     */
+    public synchronized long tryAcquire(int subscriptionId, String destination, int parts, long now) {
+        TokenBucket sim = simBucket(subscriptionId, now);
+        TokenBucket target = destinationBuckets.get(destination);
+        if (target == null) {
+            target = new TokenBucket(DESTINATION_BURST, DESTINATION_RATE_PER_MINUTE, now);
+            destinationBuckets.put(destination, target);
+        }
+
+        // A message longer than a bucket's burst waits for a full bucket and then leaves it in debt
+        long wait = Math.max(sim.waitMillis(Math.min(parts, sim.capacity), now),
+            target.waitMillis(Math.min(parts, target.capacity), now));
+        if (wait == 0) {
+            sim.tokens -= parts;
+            target.tokens -= parts;
+        }
+        return wait;
+    }
+
+    /**
+     * The carrier accepted a message: probe for more throughput
+     */
+    public synchronized void onAccepted(int subscriptionId, long now) {
+        TokenBucket sim = simBucket(subscriptionId, now);
+        sim.refill(now);
+        sim.ratePerMinute = Math.min(MAX_SIM_RATE_PER_MINUTE, sim.ratePerMinute + ADDITIVE_INCREASE_PER_MINUTE);
+    }
+
+    /**
+     * The platform or carrier refused a message for sending too much: back off
+     * @return Milliseconds until the SIM may send again at the reduced rate
+     */
+    public synchronized long onLimitExceeded(int subscriptionId, long now) {
+        TokenBucket sim = decrease(subscriptionId, now);
+        return sim.waitMillis(1, now);
+    }
+
+    /**
+     * A message was sent but its delivery report says it failed; carriers that
+     * silently drop messages from heavy senders show up this way, so back off too
+     */
+    public synchronized void onDeliveryFailed(int subscriptionId, long now) {
+        decrease(subscriptionId, now);
+    }
+
+    /**
+     * @return Tokens the SIM's bucket holds now; negative while it is paying off a long message
+     */
+    public synchronized double availableTokens(int subscriptionId, long now) {
+        TokenBucket sim = simBucket(subscriptionId, now);
+        sim.refill(now);
+        return sim.tokens;
+    }
+
+    public synchronized double getRatePerMinute(int subscriptionId) {
+        TokenBucket sim = simBuckets.get(subscriptionId);
+        return sim != null ? sim.ratePerMinute : INITIAL_SIM_RATE_PER_MINUTE;
+    }
+
+    private TokenBucket decrease(int subscriptionId, long now) {
+        TokenBucket sim = simBucket(subscriptionId, now);
+        sim.refill(now);
+        sim.ratePerMinute = Math.max(MIN_SIM_RATE_PER_MINUTE, sim.ratePerMinute * MULTIPLICATIVE_DECREASE);
+        // Drop any saved-up burst so the lower rate takes effect immediately
+        sim.tokens = Math.min(sim.tokens, 0);
+        return sim;
+    }
+
+    private TokenBucket simBucket(int subscriptionId, long now) {
+        TokenBucket sim = simBuckets.get(subscriptionId);
+        if (sim == null) {
+            sim = new TokenBucket(SIM_BURST, INITIAL_SIM_RATE_PER_MINUTE, now);
+            simBuckets.put(subscriptionId, sim);
+        }
+        return sim;
+    }
+}
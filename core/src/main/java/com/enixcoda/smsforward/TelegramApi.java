@@ -0,0 +1,159 @@
+package com.enixcoda.smsforward;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Requests to the Telegram Bot API.
+ *
+ * Messages are sent with POST /sendMessage and a JSON body, so long texts
+ * never end up in a URL. The method URLs of a bot are built once per
+ * configuration snapshot ({@link Bot}); each request then only writes its
+ * body, measured and streamed by {@link Utf8JsonWriter}.
+ *
+ * Forwards to the same chat may be coalesced into one message of up to
+ * {@link #MAX_MESSAGE_LENGTH} characters, see {@link #coalescedMessage}.
+ */
+public class TelegramApi {
+    private static final String API_BASE = "https://api.telegram.org/bot";
+
+    public static final String CONTENT_TYPE = "application/json; charset=utf-8";
+    // Longest text sendMessage accepts
+    public static final int MAX_MESSAGE_LENGTH = 4096;
+
+    private static final String FORWARD_PREFIX = "Message from ";
+    private static final String FORWARD_SEPARATOR = ":\n";
+    // Between the forwards of a coalesced message
+    private static final String COALESCED_SEPARATOR = "\n\n";
+
+    /**
+     * Method URLs of one bot, which contain its token
+     */
+    public static class Bot {
+        public final String sendMessageUrl;
+
+        public Bot(String token) {
+            String base = API_BASE + token + "/";
+            sendMessageUrl = base + "sendMessage";
+        }
+    }
+
+    /**
+     * Body of a sendMessage request. The text is kept in parts and only joined while writing.
+     */
+    public static class SendMessage {
+        private final String chatId;
+        private final String[] textParts;
+        private final long contentLength;
+
+        /**
+         * @param chatId The chat ID (numeric) or @username for groups/channels, sent as a string either way
+         * @param textParts Concatenated to form the message text
+         */
+        public SendMessage(String chatId, String... textParts) {
+            this.chatId = chatId;
+            this.textParts = textParts;
+            try {
+                this.contentLength = write(new Utf8JsonWriter(null)).size();
+            } catch (IOException e) {
+                // Counting does not touch a stream
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * @return Size of the UTF-8 body in bytes
+         */
+        public long contentLength() {
+            return contentLength;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            write(new Utf8JsonWriter(out)).flush();
+        }
+
+        private Utf8JsonWriter write(Utf8JsonWriter writer) throws IOException {
+            return writer.raw("{\"chat_id\":").string(chatId)
+                .raw(",\"text\":").string(textParts)
+                .raw("}");
+        }
+    }
+
+    /**
+     * @param chatIds Chat IDs and @usernames separated by commas, semicolons or whitespace
+     * @return The distinct chats, in the order given
+     */
+    public static List<String> parseChatIds(String chatIds) {
+        Set<String> parsed = new LinkedHashSet<>();
+        for (String chatId : chatIds.split("[,;\\s]+")) {
+            if (!chatId.isEmpty()) {
+                parsed.add(chatId);
+            }
+        }
+        return new ArrayList<>(parsed);
+    }
+
+    /**
+     * @param sender Sender as shown in forwards, e.g. with the contact name
+     * @return The text of the Telegram message for a forward
+     */
+    public static String formatMessage(String sender, String message) {
+        return FORWARD_PREFIX + sender + FORWARD_SEPARATOR + message;
+    }
+
+    /**
+     * @param sender Sender as shown in forwards, e.g. with the contact name
+     * @return A sendMessage body with the same text as {@link #formatMessage}, without building that string
+     */
+    public static SendMessage forwardMessage(String chatId, String sender, String message) {
+        return new SendMessage(chatId, FORWARD_PREFIX, sender, FORWARD_SEPARATOR, message);
+    }
+
+    /**
+     * @return Length of the text {@link #formatMessage} gives for a forward
+     */
+    public static int forwardLength(ForwardRequest request) {
+        return FORWARD_PREFIX.length() + request.sender.length() + FORWARD_SEPARATOR.length() + request.message.length();
+    }
+
+    /**
+     * @param requests Forwards to the chat, oldest first
+     * @return How many of the requests, from the first, fit in one coalesced message; at least 1
+     */
+    public static int coalescedCount(List<ForwardRequest> requests) {
+        int length = forwardLength(requests.get(0));
+        int count = 1;
+        while (count < requests.size()) {
+            length += COALESCED_SEPARATOR.length() + forwardLength(requests.get(count));
+            if (length > MAX_MESSAGE_LENGTH) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * One sendMessage body with the forwards one after the other, each formatted as by
+     * {@link #formatMessage} and separated by a blank line
+     * @param requests Forwards to the chat, as many as {@link #coalescedCount} allows
+     */
+    public static SendMessage coalescedMessage(String chatId, List<ForwardRequest> requests) {
+        String[] parts = new String[requests.size() * 5 - 1];
+        int part = 0;
+        for (ForwardRequest request : requests) {
+            if (part > 0) {
+                parts[part++] = COALESCED_SEPARATOR;
+            }
+            parts[part++] = FORWARD_PREFIX;
+            parts[part++] = request.sender;
+            parts[part++] = FORWARD_SEPARATOR;
+            parts[part++] = request.message;
+        }
+        return new SendMessage(chatId, parts);
+    }
+}
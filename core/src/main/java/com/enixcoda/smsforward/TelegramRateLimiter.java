@@ -0,0 +1,97 @@
+package com.enixcoda.smsforward;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Token buckets enforcing the Bot API broadcast limits: one for the bot
+ * and one per chat.
+ *
+ * Telegram answers 429 once a bot sends more than about 30 messages a
+ * second overall, more than one a second to a private chat, or more than
+ * 20 a minute to a group or channel. The drain worker asks for a token
+ * before each send and leaves the forward queued until one is free, so
+ * bursts are spread out here instead of being refused by Telegram. A 429
+ * that gets through anyway empties the chat's bucket for its retry_after.
+ *
+ * Rates are in messages per minute. Callers pass elapsedRealtime() as now.
+ */
+public class TelegramRateLimiter {
+    // A bucket lets through at most capacity + rate * window in any window,
+    // so the bursts are kept small enough for that to stay within the limit
+    static final double BOT_RATE_PER_MINUTE = 25 * 60;
+    static final double BOT_BURST = 5;
+    static final double PRIVATE_CHAT_RATE_PER_MINUTE = 60;
+    static final double PRIVATE_CHAT_BURST = 1;
+    static final double GROUP_RATE_PER_MINUTE = 19;
+    static final double GROUP_BURST = 1;
+    private static final int MAX_TRACKED_CHATS = 256;
+
+    private SmsRateLimiter.TokenBucket botBucket;
+    private final LinkedHashMap<String, SmsRateLimiter.TokenBucket> chatBuckets = new LinkedHashMap<String, SmsRateLimiter.TokenBucket>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SmsRateLimiter.TokenBucket> eldest) {
+            // A bucket idle long enough to be evicted is full again anyway
+            return size() > MAX_TRACKED_CHATS;
+        }
+    };
+
+    /**
+     * Take a token from both the bot's and the chat's bucket, or from neither
+     * @param chatId Numeric chat ID or @username
+     * @return 0 if the message may be sent now, otherwise milliseconds to wait before trying again
+     */
+    public synchronized long tryAcquire(String chatId, long now) {
+        if (botBucket == null) {
+            botBucket = new SmsRateLimiter.TokenBucket(BOT_BURST, BOT_RATE_PER_MINUTE, now);
+        }
+        SmsRateLimiter.TokenBucket chat = chatBucket(chatId, now);
+        long wait = Math.max(botBucket.waitMillis(1, now), chat.waitMillis(1, now));
+        if (wait == 0) {
+            botBucket.tokens -= 1;
+            chat.tokens -= 1;
+        }
+        return wait;
+    }
+
+    /**
+     * A message allowed by {@link #tryAcquire} was not sent after all: give its tokens back
+     */
+    public synchronized void release(String chatId) {
+        if (botBucket != null) {
+            botBucket.tokens = Math.min(botBucket.capacity, botBucket.tokens + 1);
+        }
+        SmsRateLimiter.TokenBucket chat = chatBuckets.get(chatId);
+        if (chat != null) {
+            chat.tokens = Math.min(chat.capacity, chat.tokens + 1);
+        }
+    }
+
+    /**
+     * Telegram refused a message to the chat with 429: hold the chat's other messages back as long
+     */
+    public synchronized void onRetryAfter(String chatId, long retryAfterMillis, long now) {
+        SmsRateLimiter.TokenBucket chat = chatBucket(chatId, now);
+        chat.refill(now);
+        chat.tokens = Math.min(chat.tokens, 1 - retryAfterMillis * chat.ratePerMinute / 60000.0);
+    }
+
+    /**
+     * Groups and supergroups have negative IDs and channels are usually addressed by @username;
+     * positive IDs are users
+     */
+    static boolean isGroup(String chatId) {
+        return chatId.startsWith("-") || chatId.startsWith("@");
+    }
+
+    private SmsRateLimiter.TokenBucket chatBucket(String chatId, long now) {
+        SmsRateLimiter.TokenBucket chat = chatBuckets.get(chatId);
+        if (chat == null) {
+            chat = isGroup(chatId)
+                ? new SmsRateLimiter.TokenBucket(GROUP_BURST, GROUP_RATE_PER_MINUTE, now)
+                : new SmsRateLimiter.TokenBucket(PRIVATE_CHAT_BURST, PRIVATE_CHAT_RATE_PER_MINUTE, now);
+            chatBuckets.put(chatId, chat);
+        }
+        return chat;
+    }
+}
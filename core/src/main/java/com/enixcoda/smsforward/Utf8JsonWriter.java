@@ -0,0 +1,144 @@
+package com.enixcoda.smsforward;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Minimal JSON writer that encodes straight to UTF-8 bytes.
+ *
+ * Created without a stream it only counts, so a body can be measured and
+ * then written by the same code, which lets the HTTP layer send it with a
+ * fixed Content-Length without ever holding the whole body in memory.
+ * Unpaired surrogates are written as JSON escapes, so the byte count
+ * never depends on how an encoder would replace them.
+ */
+public class Utf8JsonWriter {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int position;
+    private long size;
+
+    /**
+     * @param out Stream to write to, or null to only count bytes
+     */
+    public Utf8JsonWriter(OutputStream out) {
+        this.out = out;
+        this.buffer = out != null ? new byte[1024] : null;
+    }
+
+    /**
+     * Write ASCII text as is, for the structural parts of the body
+     */
+    public Utf8JsonWriter raw(String ascii) throws IOException {
+        for (int i = 0; i < ascii.length(); i++) {
+            put(ascii.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Write the parts as one quoted and escaped JSON string
+     */
+    public Utf8JsonWriter string(String... parts) throws IOException {
+        put('"');
+        for (String part : parts) {
+            escape(part);
+        }
+        put('"');
+        return this;
+    }
+
+    /**
+     * Write out anything still buffered
+     */
+    public void flush() throws IOException {
+        if (out != null && position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * @return Bytes written or counted so far
+     */
+    public long size() {
+        return size;
+    }
+
+    private void escape(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    put('\\');
+                    put('"');
+                    break;
+                case '\\':
+                    put('\\');
+                    put('\\');
+                    break;
+                case '\n':
+                    put('\\');
+                    put('n');
+                    break;
+                case '\r':
+                    put('\\');
+                    put('r');
+                    break;
+                case '\t':
+                    put('\\');
+                    put('t');
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        // Control characters, and the line separators JavaScript parsers choke on
+                        unicodeEscape(c);
+                    } else if (c < 0x80) {
+                        put(c);
+                    } else if (c < 0x800) {
+                        put(0xc0 | (c >> 6));
+                        put(0x80 | (c & 0x3f));
+                    } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                        && Character.isLowSurrogate(text.charAt(i + 1))) {
+                        int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                        put(0xf0 | (codePoint >> 18));
+                        put(0x80 | ((codePoint >> 12) & 0x3f));
+                        put(0x80 | ((codePoint >> 6) & 0x3f));
+                        put(0x80 | (codePoint & 0x3f));
+                    } else if (Character.isSurrogate(c)) {
+                        unicodeEscape(c);
+                    } else {
+                        put(0xe0 | (c >> 12));
+                        put(0x80 | ((c >> 6) & 0x3f));
+                        put(0x80 | (c & 0x3f));
+                    }
+            }
+        }
+    }
+
+    private void unicodeEscape(char c) throws IOException {
+        put('\\');
+        put('u');
+        put(HEX[(c >> 12) & 0xf]);
+        put(HEX[(c >> 8) & 0xf]);
+        put(HEX[(c >> 4) & 0xf]);
+        put(HEX[c & 0xf]);
+    }
+
+    private void put(int b) throws IOException {
+        size++;
+        if (out == null) {
+            return;
+        }
+        if (position == buffer.length) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+        buffer[position++] = (byte) b;
+    }
+}
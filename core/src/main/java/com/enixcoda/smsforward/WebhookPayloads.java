@@ -0,0 +1,94 @@
+package com.enixcoda.smsforward;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Request bodies posted to the webhook endpoints.
+ */
+public class WebhookPayloads {
+    /**
+     * How several forwards are combined into one webhook request
+     */
+    public enum BatchFormat {
+        NONE,
+        JSON_ARRAY,
+        NDJSON;
+
+        static BatchFormat fromPreference(String value) {
+            if ("json_array".equals(value)) {
+                return JSON_ARRAY;
+            } else if ("ndjson".equals(value)) {
+                return NDJSON;
+            }
+            return NONE;
+        }
+    }
+
+    /**
+     * @param endpoints URLs separated by whitespace, semicolons, or commas followed by the next URL
+     * @return The distinct endpoints, in the order given
+     */
+    public static List<String> parseEndpoints(String endpoints) {
+        Set<String> parsed = new LinkedHashSet<>();
+        // A comma alone may be part of a URL, e.g. in its query
+        for (String endpoint : endpoints.split("[\\s;]+|,(?=\\s*https?://)")) {
+            String trimmed = endpoint.trim();
+            if (!trimmed.isEmpty()) {
+                parsed.add(trimmed);
+            }
+        }
+        return new ArrayList<>(parsed);
+    }
+
+    /**
+     * @return { "from": sender, "message": message }
+     */
+    public static String single(String sender, String message) throws JSONException {
+        JSONObject body = new JSONObject();
+        body.put("from", sender);
+        body.put("message", message);
+        return body.toString();
+    }
+
+    /**
+     * Body for several forwards. Every item carries an idempotency key that
+     * stays the same across retries, so the server can drop items it has
+     * already received. The key includes the creation time as well as the
+     * journal id, so it stays unique even if an id is ever issued twice.
+     *
+     * @param requests Forwards to send, oldest first
+     * @param format JSON array or newline-delimited JSON
+     * @param installationId Identifies this device, prefixed to each item key
+     */
+    public static String batch(List<ForwardRequest> requests, BatchFormat format, String installationId) throws JSONException {
+        JSONArray items = new JSONArray();
+        StringBuilder ndjson = new StringBuilder();
+        for (ForwardRequest request : requests) {
+            JSONObject item = new JSONObject();
+            item.put("id", idempotencyKey(request, installationId));
+            item.put("from", request.sender);
+            item.put("message", request.message);
+            item.put("timestamp", request.createdAt);
+            if (format == BatchFormat.NDJSON) {
+                ndjson.append(item.toString()).append('\n');
+            } else {
+                items.put(item);
+            }
+        }
+        return format == BatchFormat.NDJSON ? ndjson.toString() : items.toString();
+    }
+
+    /**
+     * @return installationId-createdAt-id; createdAt is journaled with the forward, so retries reuse the key
+     */
+    static String idempotencyKey(ForwardRequest request, String installationId) {
+        return installationId + "-" + request.createdAt + "-" + request.id;
+    }
+}
@@ -0,0 +1,82 @@
+package com.enixcoda.smsforward;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+public class AhoCorasickTest {
+    @Test
+    public void reportsSmallestValueOfOverlappingKeywords() {
+        AhoCorasick matcher = new AhoCorasick(Arrays.asList("he", "she", "his", "hers"), new int[] {3, 1, 2, 0});
+        assertEquals(0, matcher.firstMatch("ushers"));
+        assertEquals(1, matcher.firstMatch("ushe"));
+        assertEquals(3, matcher.firstMatch("ahem"));
+        assertEquals(2, matcher.firstMatch("this"));
+        assertEquals(AhoCorasick.NO_MATCH, matcher.firstMatch("hxs"));
+    }
+
+    @Test
+    public void followsFailLinksIntoShorterKeywords() {
+        AhoCorasick matcher = new AhoCorasick(Arrays.asList("abcd", "bc"), new int[] {0, 1});
+        assertEquals(1, matcher.firstMatch("abce"));
+        assertEquals(0, matcher.firstMatch("xabcd"));
+        assertEquals(0, matcher.firstMatch("aabcd"));
+    }
+
+    @Test
+    public void ignoresCase() {
+        AhoCorasick matcher = new AhoCorasick(Collections.singletonList("OTP"), new int[] {7});
+        assertEquals(7, matcher.firstMatch("your otp"));
+        assertEquals(7, matcher.firstMatch("Your OtP"));
+    }
+
+    @Test
+    public void ignoresEmptyKeywords() {
+        AhoCorasick matcher = new AhoCorasick(Arrays.asList("", "x"), new int[] {0, 1});
+        assertEquals(AhoCorasick.NO_MATCH, matcher.firstMatch("abc"));
+        assertEquals(AhoCorasick.NO_MATCH, matcher.firstMatch(""));
+        assertEquals(1, matcher.firstMatch("x"));
+        assertEquals(1, new AhoCorasick(Collections.<String>emptyList(), new int[0]).size());
+    }
+
+    @Test
+    public void agreesWithNaiveSearchOnRandomInput() {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            List<String> keywords = new ArrayList<>();
+            int[] values = new int[1 + random.nextInt(12)];
+            for (int k = 0; k < values.length; k++) {
+                keywords.add(randomText(random, 1 + random.nextInt(4)));
+                values[k] = random.nextInt(20);
+            }
+            AhoCorasick matcher = new AhoCorasick(keywords, values);
+            for (int i = 0; i < 20; i++) {
+                String text = randomText(random, random.nextInt(30));
+                int expected = AhoCorasick.NO_MATCH;
+                for (int k = 0; k < values.length; k++) {
+                    if (text.toLowerCase(Locale.ROOT).contains(keywords.get(k).toLowerCase(Locale.ROOT))) {
+                        expected = Math.min(expected, values[k]);
+                    }
+                }
+                assertEquals(keywords + " in " + text, expected, matcher.firstMatch(text));
+            }
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        // Small alphabet so keywords overlap and repeat a lot
+        String alphabet = "abcAB";
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,201 @@
+package com.enixcoda.smsforward;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class BlocklistIndexTest {
+    @Test
+    public void matchesExactNumbers() {
+        BlocklistIndex index = BlocklistIndex.EMPTY.withEntries(Arrays.asList("+15551234567", "12345"));
+        assertTrue(index.isBlocked("+15551234567"));
+        assertTrue(index.isBlocked("12345"));
+        assertFalse(index.isBlocked("+15551234568"));
+        assertFalse(index.isBlocked("1234"));
+        assertFalse(index.isBlocked(""));
+    }
+
+    @Test
+    public void matchesSuffixesInBothDirections() {
+        BlocklistIndex index = BlocklistIndex.EMPTY.withEntries(Collections.singletonList("5551234567"));
+        // Sender has a country code the entry lacks
+        assertTrue(index.isBlocked("+15551234567"));
+        // Sender lacks the area code the entry has, but is still long enough
+        assertTrue(index.isBlocked("1234567"));
+        assertFalse(index.isBlocked("234567"));
+        assertFalse(index.isBlocked("+15551234560"));
+    }
+
+    @Test
+    public void shortEntriesOnlyMatchExactly() {
+        BlocklistIndex index = BlocklistIndex.EMPTY.withEntries(Collections.singletonList("123456"));
+        assertTrue(index.isBlocked("123456"));
+        assertFalse(index.isBlocked("+44123456"));
+    }
+
+    @Test
+    public void matchesWildcardPrefixes() {
+        BlocklistIndex index = BlocklistIndex.EMPTY.withEntries(Arrays.asList("1900*", "+44*"));
+        assertTrue(index.isBlocked("19005550000"));
+        assertTrue(index.isBlocked("+19005550000"));
+        assertTrue(index.isBlocked("+447700900123"));
+        assertFalse(index.isBlocked("447700900123"));
+        assertFalse(index.isBlocked("+18005550000"));
+        assertFalse(index.isBlocked("190"));
+    }
+
+    @Test
+    public void ignoresEmptyEntriesAndLoneWildcard() {
+        BlocklistIndex index = BlocklistIndex.EMPTY.withEntries(Arrays.asList("", "*", null));
+        assertTrue(index.size() == 0);
+        assertFalse(index.isBlocked("+15551234567"));
+    }
+
+    @Test
+    public void withEntriesAppliesAdditionsAndRemovals() {
+        BlocklistIndex first = BlocklistIndex.EMPTY.withEntries(Arrays.asList("+15551234567", "1900*"));
+        BlocklistIndex second = first.withEntries(Arrays.asList("+15551234567", "+447700900123"));
+        assertSame(second, second.withEntries(Arrays.asList("+447700900123", "+15551234567")));
+
+        assertTrue(second.isBlocked("+15551234567"));
+        assertTrue(second.isBlocked("7700900123"));
+        assertFalse(second.isBlocked("19005550000"));
+        // The old index is unchanged
+        assertTrue(first.isBlocked("19005550000"));
+        assertFalse(first.isBlocked("+447700900123"));
+
+        BlocklistIndex empty = second.withEntries(Collections.<String>emptyList());
+        assertFalse(empty.isBlocked("+15551234567"));
+        assertFalse(empty.isBlocked("7700900123"));
+    }
+
+    @Test
+    public void removingAnEntryKeepsEntriesSharingItsPath() {
+        BlocklistIndex both = BlocklistIndex.EMPTY.withEntries(Arrays.asList("5551234567", "+15551234567", "123", "1900*", "19*"));
+        BlocklistIndex longer = both.withEntries(Arrays.asList("+15551234567", "1900*"));
+        assertTrue(longer.isBlocked("+15551234567"));
+        assertTrue(longer.isBlocked("5551234567"));
+        assertFalse(longer.isBlocked("+445551234567"));
+        assertTrue(longer.isBlocked("19005550000"));
+        assertFalse(longer.isBlocked("19115550000"));
+        assertFalse(longer.isBlocked("123"));
+
+        BlocklistIndex shorter = longer.withEntries(Arrays.asList("5551234567", "19*"));
+        assertTrue(shorter.isBlocked("+445551234567"));
+        assertTrue(shorter.isBlocked("19115550000"));
+    }
+
+    @Test
+    public void agreesWithLinearMatcherOnRandomLists() {
+        Random random = new Random(3);
+        for (int round = 0; round < 300; round++) {
+            List<String> entries = new ArrayList<>();
+            for (int i = random.nextInt(30); i > 0; i--) {
+                entries.add(randomEntry(random));
+            }
+            assertAgreesWithLinearMatcher(random, BlocklistIndex.EMPTY.withEntries(entries), entries);
+        }
+    }
+
+    @Test
+    public void agreesWithLinearMatcherAcrossUpdates() {
+        Random random = new Random(4);
+        List<String> entries = new ArrayList<>();
+        BlocklistIndex index = BlocklistIndex.EMPTY;
+        for (int step = 0; step < 400; step++) {
+            // Grow to a large list now and then and shrink it to a few entries again
+            if (step % 50 == 0) {
+                for (int i = 0; i < 150; i++) {
+                    entries.add(randomEntry(random));
+                }
+            } else if (step % 50 == 25) {
+                Collections.shuffle(entries, random);
+                entries.subList(Math.min(5, entries.size()), entries.size()).clear();
+            } else if (random.nextBoolean() || entries.isEmpty()) {
+                entries.add(randomEntry(random));
+            } else {
+                entries.remove(random.nextInt(entries.size()));
+            }
+            index = index.withEntries(entries);
+            assertAgreesWithLinearMatcher(random, index, entries);
+        }
+    }
+
+    /**
+     * Compare with PhoneNumberUtils.isSenderBlocked, which has no wildcards; those are checked
+     * against a plain prefix test
+     */
+    private static void assertAgreesWithLinearMatcher(Random random, BlocklistIndex index, List<String> entries) {
+        List<String> numbers = new ArrayList<>();
+        List<String> prefixes = new ArrayList<>();
+        for (String entry : entries) {
+            if (BlocklistIndex.isWildcard(entry)) {
+                prefixes.add(entry.substring(0, entry.length() - 1));
+            } else {
+                numbers.add(entry);
+            }
+        }
+        for (int i = 0; i < 40; i++) {
+            String sender = randomSender(random, entries);
+            String cleaned = PhoneNumberUtils.cleanPhoneNumber(sender);
+            boolean expected = PhoneNumberUtils.isSenderBlocked(sender, numbers);
+            for (String prefix : prefixes) {
+                expected |= !cleaned.isEmpty()
+                    && (cleaned.startsWith(prefix) || (cleaned.charAt(0) == '+' && cleaned.startsWith(prefix, 1)));
+            }
+            assertEquals(sender + " against " + entries, expected, index.isBlocked(cleaned));
+        }
+    }
+
+    private static String randomEntry(Random random) {
+        String number = PhoneNumberUtils.cleanPhoneNumber(randomDigits(random, 3 + random.nextInt(10)));
+        if (number.isEmpty() || random.nextInt(5) > 0) {
+            return number.isEmpty() ? "5551234" : number;
+        }
+        return number.substring(0, 1 + random.nextInt(Math.min(4, number.length()))) + BlocklistIndex.WILDCARD;
+    }
+
+    /**
+     * Mostly senders derived from an entry, so the suffix and prefix rules are hit on both sides of the limits
+     */
+    private static String randomSender(Random random, List<String> entries) {
+        if (entries.isEmpty() || random.nextInt(4) == 0) {
+            return randomDigits(random, 1 + random.nextInt(13));
+        }
+        String entry = entries.get(random.nextInt(entries.size()));
+        if (BlocklistIndex.isWildcard(entry)) {
+            entry = entry.substring(0, entry.length() - 1);
+        }
+        switch (random.nextInt(4)) {
+            case 0:
+                return entry;
+            case 1:
+                return randomDigits(random, 1 + random.nextInt(3)) + entry;
+            case 2:
+                return entry.substring(random.nextInt(entry.length()));
+            default:
+                return entry + randomDigits(random, 1 + random.nextInt(4));
+        }
+    }
+
+    private static String randomDigits(Random random, int length) {
+        StringBuilder digits = new StringBuilder(length + 1);
+        if (random.nextInt(3) == 0) {
+            digits.append('+');
+        }
+        for (int i = 0; i < length; i++) {
+            // Few distinct digits, so numbers share suffixes and prefixes
+            digits.append((char) ('0' + random.nextInt(3)));
+        }
+        return digits.toString();
+    }
+}
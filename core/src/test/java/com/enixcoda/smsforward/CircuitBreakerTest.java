@@ -0,0 +1,103 @@
+package com.enixcoda.smsforward;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+    @Test
+    public void opensOnceEnoughCallsFailed() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < CircuitBreaker.MIN_CALLS - 1; i++) {
+            assertEquals(0, breaker.tryAcquire(0));
+            breaker.record(0, 10, true);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(0));
+
+        breaker.record(1000, 10, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(1000));
+        assertEquals(CircuitBreaker.INITIAL_OPEN_MS, breaker.tryAcquire(1000));
+        assertEquals(1, breaker.tryAcquire(1000 + CircuitBreaker.INITIAL_OPEN_MS - 1));
+    }
+
+    @Test
+    public void staysClosedBelowFailureRate() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < CircuitBreaker.WINDOW; i++) {
+            breaker.record(0, 10, false);
+        }
+        // Half of the window is needed to open
+        for (int i = 0; i < CircuitBreaker.WINDOW / 2 - 1; i++) {
+            breaker.record(0, 10, true);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(0));
+        breaker.record(0, 10, true);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(0));
+    }
+
+    @Test
+    public void countsSlowCallsAsFailures() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < CircuitBreaker.MIN_CALLS; i++) {
+            breaker.record(0, CircuitBreaker.SLOW_CALL_MS, false);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(0));
+    }
+
+    @Test
+    public void halfOpenLetsOneProbeThroughAndClosesOnSuccess() {
+        CircuitBreaker breaker = openBreaker();
+        long reopenAt = CircuitBreaker.INITIAL_OPEN_MS;
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState(reopenAt));
+        assertEquals(0, breaker.tryAcquire(reopenAt));
+        assertTrue(breaker.tryAcquire(reopenAt) > 0);
+
+        breaker.record(reopenAt, 10, false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(reopenAt));
+        assertEquals(0, breaker.tryAcquire(reopenAt));
+        assertEquals(0, breaker.tryAcquire(reopenAt));
+        assertTrue(breaker.summary(reopenAt).startsWith("healthy, 0/0 recent calls"));
+    }
+
+    @Test
+    public void releasedProbeCanBeRetaken() {
+        CircuitBreaker breaker = openBreaker();
+        long reopenAt = CircuitBreaker.INITIAL_OPEN_MS;
+        assertEquals(0, breaker.tryAcquire(reopenAt));
+        breaker.release();
+        assertEquals(0, breaker.tryAcquire(reopenAt));
+    }
+
+    @Test
+    public void failedProbesDoubleOpenTimeUpToMaximum() {
+        CircuitBreaker breaker = openBreaker();
+        long now = CircuitBreaker.INITIAL_OPEN_MS;
+        long expected = CircuitBreaker.INITIAL_OPEN_MS;
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, breaker.tryAcquire(now));
+            breaker.record(now, 10, true);
+            expected = Math.min(expected * 2, CircuitBreaker.MAX_OPEN_MS);
+            assertEquals(expected, breaker.tryAcquire(now));
+            now += expected;
+        }
+        assertEquals(CircuitBreaker.MAX_OPEN_MS, expected);
+    }
+
+    @Test
+    public void ignoresOutcomesOfCallsStartedBeforeOpening() {
+        CircuitBreaker breaker = openBreaker();
+        breaker.record(1, 10, false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(1));
+        assertTrue(breaker.summary(1).startsWith("open, retrying in 30 s"));
+    }
+
+    private static CircuitBreaker openBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < CircuitBreaker.MIN_CALLS; i++) {
+            breaker.record(0, 10, true);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(0));
+        return breaker;
+    }
+}
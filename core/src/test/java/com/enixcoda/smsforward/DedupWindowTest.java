@@ -0,0 +1,77 @@
+package com.enixcoda.smsforward;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+public class DedupWindowTest {
+    private static final long WINDOW_MS = 60 * 1000;
+
+    @Test
+    public void suppressesCopiesWithinWindow() {
+        DedupWindow window = new DedupWindow();
+        long fingerprint = DedupWindow.fingerprint("+15551234567", "Your code is 1234");
+        assertFalse(window.isDuplicate(fingerprint, 1000, WINDOW_MS));
+        assertTrue(window.isDuplicate(fingerprint, 1000 + WINDOW_MS - 1, WINDOW_MS));
+        // Measured from the first copy, which is now out of the window
+        assertFalse(window.isDuplicate(fingerprint, 1000 + WINDOW_MS, WINDOW_MS));
+    }
+
+    @Test
+    public void fingerprintSeparatesSenderFromBody() {
+        assertNotEquals(DedupWindow.fingerprint("12", "3"), DedupWindow.fingerprint("1", "23"));
+        assertNotEquals(DedupWindow.fingerprint("1", "a"), DedupWindow.fingerprint("1", "b"));
+        assertNotEquals(DedupWindow.fingerprint("1", "\u0100"), DedupWindow.fingerprint("1", "\u0001"));
+        assertEquals(DedupWindow.fingerprint("1", "a"), DedupWindow.fingerprint("1", "a"));
+    }
+
+    @Test
+    public void forgetsOldestWhenFull() {
+        DedupWindow window = new DedupWindow(4);
+        for (long fingerprint = 1; fingerprint <= 5; fingerprint++) {
+            assertFalse(window.isDuplicate(fingerprint, 0, WINDOW_MS));
+        }
+        assertEquals(4, window.size());
+        assertTrue(window.isDuplicate(5, 0, WINDOW_MS));
+        assertTrue(window.isDuplicate(2, 0, WINDOW_MS));
+        assertFalse(window.isDuplicate(1, 0, WINDOW_MS));
+    }
+
+    @Test
+    public void agreesWithReferenceOnRandomInput() {
+        int capacity = 16;
+        DedupWindow window = new DedupWindow(capacity);
+        // Fingerprint and first-seen time of each remembered message, oldest first
+        ArrayDeque<long[]> reference = new ArrayDeque<>();
+        Random random = new Random(7);
+        long now = 0;
+        for (int i = 0; i < 100000; i++) {
+            now += random.nextInt(3000);
+            // Few distinct values and colliding table slots, so probe runs and deletions are exercised
+            long fingerprint = 1 + random.nextInt(40) * 64L;
+
+            while (!reference.isEmpty() && now - reference.peekFirst()[1] >= WINDOW_MS) {
+                reference.pollFirst();
+            }
+            boolean expected = false;
+            for (long[] entry : reference) {
+                expected |= entry[0] == fingerprint;
+            }
+            if (!expected) {
+                if (reference.size() == capacity) {
+                    reference.pollFirst();
+                }
+                reference.addLast(new long[] {fingerprint, now});
+            }
+
+            assertEquals("step " + i, expected, window.isDuplicate(fingerprint, now, WINDOW_MS));
+            assertEquals(reference.size(), window.size());
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.enixcoda.smsforward;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+public class ForwardJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysUnacknowledgedForwardsAfterRestart() throws IOException {
+        File directory = folder.newFolder();
+        ForwardJournal journal = new ForwardJournal(directory);
+        journal.open();
+        ForwardRequest delivered = append(journal, "first");
+        ForwardRequest pending = append(journal, "second");
+        pending.attempts = 2;
+        journal.recordAttempt(pending);
+        journal.ack(delivered);
+        journal.close();
+
+        List<ForwardRequest> replayed = new ForwardJournal(directory).open();
+        assertEquals(1, replayed.size());
+        ForwardRequest request = replayed.get(0);
+        assertEquals(pending.id, request.id);
+        assertEquals(pending.createdAt, request.createdAt);
+        assertEquals(ForwardRequest.Channel.WEB, request.channel);
+        assertEquals("+15551234567", request.sender);
+        assertEquals("second", request.message);
+        assertEquals("https://example.com/hook", request.target);
+        assertEquals(2, request.attempts);
+    }
+
+    @Test
+    public void dropsTornRecordAtEndOfSegment() throws IOException {
+        File directory = folder.newFolder();
+        ForwardJournal journal = new ForwardJournal(directory);
+        journal.open();
+        append(journal, "first");
+        append(journal, "second");
+        journal.close();
+
+        File segment = lastSegment(directory);
+        long validLength = segment.length();
+        try (FileOutputStream out = new FileOutputStream(segment, true)) {
+            // Length prefix of a record whose payload never made it to disk
+            out.write(new byte[] {0, 0, 0, 40, 1, 0, 0});
+        }
+
+        assertEquals(2, new ForwardJournal(directory).open().size());
+        assertEquals(validLength, segment.length());
+    }
+
+    @Test
+    public void stopsReplayAtRecordWithBadChecksum() throws IOException {
+        File directory = folder.newFolder();
+        ForwardJournal journal = new ForwardJournal(directory);
+        journal.open();
+        ForwardRequest first = append(journal, "first");
+        append(journal, "second");
+        journal.close();
+
+        File segment = lastSegment(directory);
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // Last byte of the second record's CRC
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xff);
+        }
+
+        List<ForwardRequest> replayed = new ForwardJournal(directory).open();
+        assertEquals(1, replayed.size());
+        assertEquals(first.id, replayed.get(0).id);
+    }
+
+    @Test
+    public void idsKeepIncreasingAfterAllSegmentsAreAcknowledged() throws IOException {
+        File directory = folder.newFolder();
+        long previous = 0;
+        for (int restart = 0; restart < 3; restart++) {
+            ForwardJournal journal = new ForwardJournal(directory);
+            assertTrue(journal.open().isEmpty());
+            ForwardRequest request = append(journal, "message " + restart);
+            journal.ack(request);
+            journal.close();
+            assertTrue("id " + request.id + " after " + previous, request.id > previous);
+            previous = request.id;
+
+            // A restart with nothing to send leaves only the new, empty segment behind
+            ForwardJournal idle = new ForwardJournal(directory);
+            idle.open();
+            idle.close();
+        }
+    }
+
+    @Test
+    public void idsKeepIncreasingAfterSegmentsRollOverAndAreDeleted() throws IOException {
+        File directory = folder.newFolder();
+        ForwardJournal journal = new ForwardJournal(directory);
+        journal.open();
+        char[] text = new char[4096];
+        Arrays.fill(text, 'x');
+        ForwardRequest last = null;
+        for (int i = 0; i < 200; i++) {
+            last = append(journal, new String(text));
+            journal.ack(last);
+        }
+        journal.close();
+        assertTrue(segments(directory).length <= 2);
+
+        ForwardJournal reopened = new ForwardJournal(directory);
+        assertTrue(reopened.open().isEmpty());
+        assertTrue(append(reopened, "next").id > last.id);
+        reopened.close();
+    }
+
+    @Test
+    public void ignoresUnexpectedFilesInDirectory() throws IOException {
+        File directory = folder.newFolder();
+        ForwardJournal journal = new ForwardJournal(directory);
+        journal.open();
+        ForwardRequest request = append(journal, "kept");
+        journal.close();
+        assertTrue(new File(directory, "segment-abc.log").createNewFile());
+
+        ForwardJournal reopened = new ForwardJournal(directory);
+        List<ForwardRequest> replayed = reopened.open();
+        assertEquals(1, replayed.size());
+        assertEquals(request.id, replayed.get(0).id);
+        // Still usable for new forwards
+        append(reopened, "after");
+        reopened.close();
+        assertEquals(2, new ForwardJournal(directory).open().size());
+    }
+
+    private static ForwardRequest append(ForwardJournal journal, String message) throws IOException {
+        ForwardRequest request = journal.newRequest(ForwardRequest.Channel.WEB, "+15551234567", message, "https://example.com/hook");
+        journal.append(request);
+        journal.sync();
+        return request;
+    }
+
+    private static File[] segments(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.matches("segment-\\d+\\.log"));
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static File lastSegment(File directory) {
+        File[] files = segments(directory);
+        return files[files.length - 1];
+    }
+}
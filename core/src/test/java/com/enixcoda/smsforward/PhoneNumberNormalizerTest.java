@@ -0,0 +1,108 @@
+package com.enixcoda.smsforward;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class PhoneNumberNormalizerTest {
+    // ASCII digits are weighted up so many inputs reach the length and "00" rules;
+    // the rest are separators, letters and digits of other scripts, which are all dropped
+    private static final String ALPHABET = "0000123456789012345678900+++ -().#*abcX"
+        + "\u0660\u0669\u06f5\u0966\uff10\uff19\u00b2\u00a0";
+
+    @Test
+    public void appliesPrefixRules() {
+        assertEquals("", PhoneNumberNormalizer.clean(null));
+        assertEquals("", PhoneNumberNormalizer.clean(""));
+        assertEquals("", PhoneNumberNormalizer.clean("abc"));
+        assertEquals("+15551234567", PhoneNumberNormalizer.clean("+1 (555) 123-4567"));
+        assertEquals("+447700900123", PhoneNumberNormalizer.clean("00 44 7700 900123"));
+        assertEquals("+15551234567", PhoneNumberNormalizer.clean("15551234567"));
+        assertEquals("5551234567", PhoneNumberNormalizer.clean("555-123-4567"));
+        // Non-ASCII digits are dropped, as \d did without UNICODE_CHARACTER_CLASS
+        assertEquals("12", PhoneNumberNormalizer.clean("1\u0662\uff132"));
+    }
+
+    @Test
+    public void returnsInputWhenAlreadyNormalized() {
+        String number = "+15551234567";
+        assertSame(number, PhoneNumberNormalizer.clean(number));
+    }
+
+    @Test
+    public void matchesLegacyRegexOnRandomInput() {
+        Random random = new Random(1);
+        char[] buffer = new char[64];
+        for (int i = 0; i < 200000; i++) {
+            String raw = randomNumber(random);
+            String expected = legacyClean(raw);
+            assertEquals("clean(\"" + raw + "\")", expected, PhoneNumberNormalizer.clean(raw));
+            int length = PhoneNumberNormalizer.normalize(raw, buffer);
+            assertEquals("normalize(\"" + raw + "\")", expected, new String(buffer, 0, length));
+        }
+    }
+
+    @Test
+    public void packedKeysAreEqualExactlyWhenNormalizedNumbersAre() {
+        Random random = new Random(2);
+        Map<Long, String> numbersByKey = new HashMap<>();
+        Map<String, Long> keysByNumber = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            String raw = randomNumber(random);
+            long key = PhoneNumberNormalizer.packedKey(raw);
+            String cleaned = legacyClean(raw);
+            if (key == PhoneNumberNormalizer.NO_KEY) {
+                continue;
+            }
+            String previousNumber = numbersByKey.put(key, cleaned);
+            if (previousNumber != null) {
+                assertEquals("number with the key of \"" + raw + "\"", previousNumber, cleaned);
+            }
+            Long previousKey = keysByNumber.put(cleaned, key);
+            if (previousKey != null) {
+                assertEquals("key of \"" + raw + "\"", previousKey.longValue(), key);
+            }
+        }
+        // Leading zeros and the '+' are part of the key
+        assertNotEquals(PhoneNumberNormalizer.packedKey("0123"), PhoneNumberNormalizer.packedKey("123"));
+        assertNotEquals(PhoneNumberNormalizer.packedKey("+123"), PhoneNumberNormalizer.packedKey("123"));
+        assertEquals(PhoneNumberNormalizer.packedKey("00123"), PhoneNumberNormalizer.packedKey("+123"));
+        assertEquals(PhoneNumberNormalizer.packedKey("12345678901"), PhoneNumberNormalizer.packedKey("+12345678901"));
+        assertEquals(PhoneNumberNormalizer.NO_KEY, PhoneNumberNormalizer.packedKey("1+2"));
+        assertEquals(PhoneNumberNormalizer.NO_KEY, PhoneNumberNormalizer.packedKey("123456789012345678"));
+    }
+
+    /**
+     * PhoneNumberUtils.cleanPhoneNumber as it was before PhoneNumberNormalizer
+     */
+    private static String legacyClean(String phoneNumber) {
+        if (phoneNumber == null || phoneNumber.isEmpty()) {
+            return "";
+        }
+        String cleaned = phoneNumber.replaceAll("[^\\d+]", "");
+        if (cleaned.startsWith("+")) {
+            return cleaned;
+        } else if (cleaned.startsWith("00")) {
+            return "+" + cleaned.substring(2);
+        } else if (cleaned.length() > 10) {
+            return "+" + cleaned;
+        } else {
+            return cleaned;
+        }
+    }
+
+    private static String randomNumber(Random random) {
+        int length = random.nextInt(24);
+        StringBuilder number = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            number.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return number.toString();
+    }
+}
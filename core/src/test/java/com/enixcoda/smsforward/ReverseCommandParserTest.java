@@ -0,0 +1,91 @@
+package com.enixcoda.smsforward;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ReverseCommandParserTest {
+    @Test
+    public void parsesSingleCommand() {
+        List<ReverseCommandParser.Command> commands = ReverseCommandParser.parse("To +15551234567:\nHello there");
+        assertEquals(1, commands.size());
+        assertEquals(Arrays.asList("+15551234567"), commands.get(0).destinations);
+        assertEquals("Hello there", commands.get(0).body);
+    }
+
+    @Test
+    public void parsesSeveralDestinations() {
+        List<ReverseCommandParser.Command> commands = ReverseCommandParser.parse("To +15551234567,  +447700900123,5551234:\nHi");
+        assertEquals(Arrays.asList("+15551234567", "+447700900123", "5551234"), commands.get(0).destinations);
+        assertEquals("Hi", commands.get(0).body);
+    }
+
+    @Test
+    public void keepsLineBreaksInBody() {
+        List<ReverseCommandParser.Command> commands = ReverseCommandParser.parse("To 5551234:\nline one\nline two\n");
+        assertEquals(1, commands.size());
+        assertEquals("line one\nline two\n", commands.get(0).body);
+    }
+
+    @Test
+    public void acceptsCarriageReturnAfterHeader() {
+        List<ReverseCommandParser.Command> commands = ReverseCommandParser.parse("To 5551234:\r\nHi");
+        assertEquals("Hi", commands.get(0).body);
+    }
+
+    @Test
+    public void allowsEmptyBody() {
+        List<ReverseCommandParser.Command> commands = ReverseCommandParser.parse("To 5551234:\n");
+        assertEquals(1, commands.size());
+        assertEquals("", commands.get(0).body);
+    }
+
+    @Test
+    public void splitsBatchAtHeaderLines() {
+        List<ReverseCommandParser.Command> commands = ReverseCommandParser.parse(
+            "To 111:\nfirst\nTo 222, 333:\nsecond\nstill second\nTo 444:\nthird");
+        assertEquals(3, commands.size());
+        assertEquals(Arrays.asList("111"), commands.get(0).destinations);
+        assertEquals("first", commands.get(0).body);
+        assertEquals(Arrays.asList("222", "333"), commands.get(1).destinations);
+        assertEquals("second\nstill second", commands.get(1).body);
+        assertEquals(Arrays.asList("444"), commands.get(2).destinations);
+        assertEquals("third", commands.get(2).body);
+    }
+
+    @Test
+    public void keepsInvalidHeaderLinesInBody() {
+        List<ReverseCommandParser.Command> commands = ReverseCommandParser.parse(
+            "To 111:\nTo whom it may concern:\nTo 222: same line\nTo 333:");
+        assertEquals(1, commands.size());
+        assertEquals("To whom it may concern:\nTo 222: same line\nTo 333:", commands.get(0).body);
+    }
+
+    @Test
+    public void rejectsMessagesWithoutValidHeader() {
+        assertTrue(ReverseCommandParser.parse("").isEmpty());
+        assertTrue(ReverseCommandParser.parse("Hello").isEmpty());
+        assertTrue(ReverseCommandParser.parse("To 5551234: Hi").isEmpty());
+        assertTrue(ReverseCommandParser.parse("To 5551234:").isEmpty());
+        assertTrue(ReverseCommandParser.parse("To :\nHi").isEmpty());
+        assertTrue(ReverseCommandParser.parse("To +:\nHi").isEmpty());
+        assertTrue(ReverseCommandParser.parse("To 555 1234:\nHi").isEmpty());
+        assertTrue(ReverseCommandParser.parse("To 111,:\nHi").isEmpty());
+        assertTrue(ReverseCommandParser.parse("to 5551234:\nHi").isEmpty());
+        assertTrue(ReverseCommandParser.parse(" To 5551234:\nHi").isEmpty());
+    }
+
+    @Test
+    public void headerParserClearsDestinationsOnFailure() {
+        List<String> destinations = new ArrayList<>();
+        assertEquals(-1, ReverseCommandParser.parseHeader("To 111, 22x:\n", 0, destinations));
+        assertTrue(destinations.isEmpty());
+        assertEquals(9, ReverseCommandParser.parseHeader("ab\nTo 1:\nc", 3, destinations));
+        assertEquals(Arrays.asList("1"), destinations);
+    }
+}
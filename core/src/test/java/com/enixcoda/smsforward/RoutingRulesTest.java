@@ -0,0 +1,120 @@
+package com.enixcoda.smsforward;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RoutingRulesTest {
+    private static final String RULES = ""
+        + "# OTPs go out first\n"
+        + "body contains OTP, verification code -> telegram priority high\n"
+        + "sender in +1 555 123 4567, BANKXYZ -> web, sms\n"
+        + "\n"
+        + "body matches /\\bsale\\b|\\d+% off/i -> drop\n"
+        + "sender matches /^\\+1800/ -> telegram\n"
+        + "any -> sms\n";
+
+    @Test
+    public void firstMatchingRuleWins() {
+        RoutingRules rules = RoutingRules.parse(RULES);
+        assertTrue(rules.errors.isEmpty());
+        assertEquals(5, rules.size());
+
+        // Keyword rule comes before the sender rule
+        RoutingRules.Rule rule = match(rules, "+15551234567", "Your otp is 1234");
+        assertTrue(rule.forwardsTo(ForwardRequest.Channel.TELEGRAM));
+        assertEquals(ForwardRequest.Priority.HIGH, rule.priority);
+
+        rule = match(rules, "+15551234567", "Hello");
+        assertTrue(rule.forwardsTo(ForwardRequest.Channel.WEB));
+        assertTrue(rule.forwardsTo(ForwardRequest.Channel.SMS));
+        assertFalse(rule.forwardsTo(ForwardRequest.Channel.TELEGRAM));
+        assertEquals(ForwardRequest.Priority.NORMAL, rule.priority);
+
+        assertTrue(match(rules, "+15550000000", "Big SALE today").drops());
+        assertTrue(match(rules, "+15550000000", "50% off everything").drops());
+        assertFalse(match(rules, "+15550000000", "wholesale prices").drops());
+
+        assertEquals(RULES.split("\n")[5], match(rules, "+18005550000", "Hello").source);
+        assertEquals("any -> sms", match(rules, "+15550000000", "Hello").source);
+    }
+
+    @Test
+    public void matchesSendersInNormalizedFormAndAlphanumericIdsIgnoringCase() {
+        RoutingRules rules = RoutingRules.parse("sender in 0015551234567, BankXYZ -> web");
+        assertTrue(match(rules, "+1 (555) 123-4567", "Hi").forwardsTo(ForwardRequest.Channel.WEB));
+        assertTrue(match(rules, "bankxyz", "Hi").forwardsTo(ForwardRequest.Channel.WEB));
+        assertNull(match(rules, "+15551234568", "Hi"));
+    }
+
+    @Test
+    public void keywordsMatchIgnoringCaseAnywhereInBody() {
+        RoutingRules rules = RoutingRules.parse("body contains Verification Code -> telegram");
+        assertTrue(match(rules, "1", "your VERIFICATION CODE: 1234") != null);
+        assertTrue(match(rules, "1", "prefixverification codesuffix") != null);
+        assertNull(match(rules, "1", "verification-code"));
+    }
+
+    @Test
+    public void laterKeywordDoesNotOverrideEarlierRegex() {
+        RoutingRules rules = RoutingRules.parse("body matches /promo/ -> drop\nbody contains promo -> telegram");
+        assertTrue(match(rules, "1", "a promo for you").drops());
+    }
+
+    @Test
+    public void earlierKeywordWinsOverLaterRegex() {
+        RoutingRules rules = RoutingRules.parse("body contains promo -> telegram\nbody matches /promo/ -> drop");
+        assertFalse(match(rules, "1", "a promo for you").drops());
+    }
+
+    @Test
+    public void regexIsCaseSensitiveWithoutFlag() {
+        RoutingRules rules = RoutingRules.parse("body matches /Sale/ -> drop");
+        assertNull(match(rules, "1", "sale"));
+        assertTrue(match(rules, "1", "Sale").drops());
+    }
+
+    @Test
+    public void noMatchWithoutCatchAll() {
+        RoutingRules rules = RoutingRules.parse("body contains otp -> telegram");
+        assertNull(match(rules, "+15550000000", "Hello"));
+    }
+
+    @Test
+    public void blankTextGivesEmptyRules() {
+        assertSame(RoutingRules.EMPTY, RoutingRules.parse(null));
+        assertSame(RoutingRules.EMPTY, RoutingRules.parse("  \n "));
+        assertTrue(RoutingRules.EMPTY.isEmpty());
+        assertNull(match(RoutingRules.EMPTY, "1", "otp"));
+    }
+
+    @Test
+    public void reportsInvalidLinesAndKeepsTheRest() {
+        RoutingRules rules = RoutingRules.parse(""
+            + "body contains otp -> telegram\n"
+            + "body contains otp telegram\n"
+            + "subject contains x -> sms\n"
+            + "body matches /[/ -> sms\n"
+            + "body matches promo -> sms\n"
+            + "any -> fax\n"
+            + "any -> drop, sms\n"
+            + "any -> priority high\n"
+            + "any -> sms priority urgent\n"
+            + "body contains , -> sms\n"
+            + "* -> web\n");
+        assertEquals(2, rules.size());
+        assertEquals(9, rules.errors.size());
+        assertTrue(rules.errors.get(0).startsWith("line 2: "));
+        assertTrue(rules.errors.get(2).startsWith("line 4: invalid regex"));
+        assertTrue(rules.errors.get(8).startsWith("line 10: "));
+        assertTrue(match(rules, "1", "hello").forwardsTo(ForwardRequest.Channel.WEB));
+    }
+
+    private static RoutingRules.Rule match(RoutingRules rules, String sender, String body) {
+        return rules.match(sender, PhoneNumberUtils.cleanPhoneNumber(sender), body);
+    }
+}